@@ -0,0 +1,114 @@
+package com.xili7.game.benchmarks;
+
+import com.xili7.game.sim.BirdSwarm;
+import com.xili7.game.sim.Course;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One course step for many birds: {@link BirdSwarm} (parallel primitive
+ * arrays, shared pipe lookups) against one {@link Simulation} object per bird.
+ *
+ * Every bird runs the same cheap autopilot (aim above the bottom of the gap
+ * ahead, with a per-bird offset so they spread out) to keep most of them
+ * alive; once half have died the population is restarted, which is
+ * amortised into the score. Divide the time per operation by
+ * {@code birds} for the per-bird cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BirdSwarmBenchmark {
+    private static final float AIM_ABOVE_GAP = CourseGeometry.PIPE_HEAD_HEIGHT + 6f;
+
+    @Param({"100", "1000", "10000"})
+    public int birds;
+
+    private Course course;
+    private BirdSwarm swarm;
+    private Simulation[] simulations;
+    private int simulationsAlive;
+
+    @Setup
+    public void setUp() {
+        course = new Course(42L);
+        resetSwarm();
+        resetSimulations();
+    }
+
+    @Benchmark
+    public int swarmStep() {
+        if (swarm.activeCount() < birds / 2) {
+            resetSwarm();
+        }
+        float target = targetAt(swarm.tick());
+        int active = swarm.activeCount();
+        for (int slot = 0; slot < active; slot++) {
+            if (swarm.yAt(slot) + swarm.velocityAt(slot) * 0.1f < target + offset(swarm.idAt(slot))) {
+                swarm.flap(slot);
+            }
+        }
+        return swarm.step();
+    }
+
+    @Benchmark
+    public int simulationStep() {
+        if (simulationsAlive < birds / 2) {
+            resetSimulations();
+        }
+        int alive = 0;
+        for (int id = 0; id < simulations.length; id++) {
+            Simulation simulation = simulations[id];
+            if (!simulation.isAlive()) {
+                continue;
+            }
+            float target = targetAt(simulation.tick());
+            boolean flap = simulation.birdY() + simulation.velocity() * 0.1f < target + offset(id);
+            if (simulation.step(flap)) {
+                alive++;
+            }
+        }
+        simulationsAlive = alive;
+        return alive;
+    }
+
+    private float targetAt(long tick) {
+        return course.gapY(CourseGeometry.pipeAhead(tick)) + AIM_ABOVE_GAP;
+    }
+
+    private static float offset(int id) {
+        return id & 15;
+    }
+
+    private void resetSwarm() {
+        swarm = new BirdSwarm(course, birds);
+        for (int i = 0; i < birds; i++) {
+            swarm.add();
+        }
+    }
+
+    private void resetSimulations() {
+        simulations = new Simulation[birds];
+        for (int i = 0; i < birds; i++) {
+            simulations[i] = new Simulation(course);
+            simulations[i].start();
+        }
+        simulationsAlive = birds;
+    }
+}
@@ -0,0 +1,59 @@
+package com.xili7.game.benchmarks;
+
+import com.xili7.game.network.MessageParser;
+import com.xili7.game.network.MessageParser.ParsedMessage;
+import com.xili7.game.network.MessageParser.PlayerSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of the tick-broadcast STATE message in the network package.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkProtocolBenchmark {
+    @Param({"2", "16", "64", "200"})
+    public int players;
+
+    private Map<String, PlayerSnapshot> snapshots;
+    private String stateLine;
+    private ParsedMessage parsedState;
+
+    @Setup
+    public void setUp() {
+        snapshots = Payloads.networkSnapshots(players);
+        stateLine = MessageParser.serializeState(snapshots);
+        parsedState = MessageParser.parse(stateLine);
+    }
+
+    @Benchmark
+    public String serializeState() {
+        return MessageParser.serializeState(snapshots);
+    }
+
+    @Benchmark
+    public Map<String, PlayerSnapshot> parseState() {
+        return MessageParser.parseState(parsedState);
+    }
+
+    @Benchmark
+    public Map<String, PlayerSnapshot> parseLineAndState() {
+        return MessageParser.parseState(MessageParser.parse(stateLine));
+    }
+}
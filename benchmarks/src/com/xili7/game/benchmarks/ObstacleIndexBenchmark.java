@@ -0,0 +1,109 @@
+package com.xili7.game.benchmarks;
+
+import com.xili7.game.sim.Course;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Obstacle;
+import com.xili7.game.sim.ObstacleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collision queries against a dense course: {@link ObstacleIndex} against a
+ * linear scan of every obstacle.
+ *
+ * The course is the regular pipes of a seeded {@link Course} plus, per pipe,
+ * {@code blocksPerPipe} floating blocks of random width (a few much wider
+ * than a pipe) scattered between them. Each operation answers
+ * {@value #QUERIES} birds at random ticks and heights along the course;
+ * divide by that for the cost of one query. The scan grows with the course
+ * length, the index only with its local density.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ObstacleIndexBenchmark {
+    private static final int QUERIES = 1024;
+
+    @Param({"64", "1024", "16384"})
+    public int pipes;
+
+    @Param({"0", "4"})
+    public int blocksPerPipe;
+
+    private Obstacle[] obstacles;
+    private ObstacleIndex index;
+    private long[] ticks;
+    private float[] ys;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        List<Obstacle> course = new Course(42L).obstacles(pipes);
+        double length = CourseGeometry.pipeX(pipes, 0L);
+        for (int i = 0; i < pipes * blocksPerPipe; i++) {
+            float width = random.nextInt(16) == 0 ? 8f * CourseGeometry.PIPE_WIDTH : 2f + random.nextFloat() * 10f;
+            float low = CourseGeometry.GROUND_Y + random.nextFloat() * 120f;
+            course.add(Obstacle.block(CourseGeometry.FIRST_PIPE_X + random.nextDouble() * length, width, low, low + 12f));
+        }
+        obstacles = course.toArray(new Obstacle[0]);
+        index = new ObstacleIndex(course);
+
+        long lastTick = (long) (length / CourseGeometry.PIPE_SPEED_PER_STEP);
+        ticks = new long[QUERIES];
+        ys = new float[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            ticks[i] = (long) (random.nextDouble() * lastTick);
+            ys[i] = CourseGeometry.GROUND_Y + random.nextFloat() * 150f;
+        }
+    }
+
+    @Benchmark
+    public int indexed() {
+        int hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            if (index.hits(ticks[i], ys[i])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int hits = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            if (scanHits(ticks[i], ys[i])) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private boolean scanHits(long tick, float birdY) {
+        for (Obstacle obstacle : obstacles) {
+            double x = obstacle.xAt(tick);
+            if (CourseGeometry.BIRD_X + CourseGeometry.BIRD_WIDTH >= x
+                && CourseGeometry.BIRD_X < x + obstacle.width()
+                && obstacle.blocks(birdY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
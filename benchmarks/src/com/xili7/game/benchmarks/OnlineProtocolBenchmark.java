@@ -0,0 +1,88 @@
+package com.xili7.game.benchmarks;
+
+import com.xili7.game.online.MessageParser;
+import com.xili7.game.online.MessageParser.ParsedMessage;
+import com.xili7.game.online.MessageParser.PlayerState;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode/decode cost of {@link MessageParser} in the online package.
+ *
+ * Run with "-prof gc" to get gc.alloc.rate.norm (bytes allocated per op)
+ * next to ops/s; that is the baseline faster codecs are measured against.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnlineProtocolBenchmark {
+    @Param({"2", "16", "64", "200"})
+    public int players;
+
+    private List<PlayerState> states;
+    private PlayerState single;
+    private String stateLine;
+    private String bulkLine;
+    private ParsedMessage parsedState;
+    private ParsedMessage parsedBulk;
+
+    @Setup
+    public void setUp() {
+        states = Payloads.onlineStates(players);
+        single = states.get(0);
+        stateLine = MessageParser.state(single.playerId(), single.x(), single.y(), single.score());
+        bulkLine = MessageParser.bulkState(states);
+        parsedState = MessageParser.parse(stateLine);
+        parsedBulk = MessageParser.parse(bulkLine);
+    }
+
+    @Benchmark
+    public ParsedMessage parseStateLine() {
+        return MessageParser.parse(stateLine);
+    }
+
+    @Benchmark
+    public ParsedMessage parseBulkLine() {
+        return MessageParser.parse(bulkLine);
+    }
+
+    @Benchmark
+    public PlayerState parseState() {
+        return MessageParser.parseState(parsedState);
+    }
+
+    @Benchmark
+    public List<PlayerState> parseBulkState() {
+        return MessageParser.parseBulkState(parsedBulk);
+    }
+
+    @Benchmark
+    public List<PlayerState> parseLineAndBulkState() {
+        return MessageParser.parseBulkState(MessageParser.parse(bulkLine));
+    }
+
+    @Benchmark
+    public String bulkState() {
+        return MessageParser.bulkState(states);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return MessageParser.serialize("STATE", single.playerId(), single.x(), single.y(), single.score());
+    }
+}
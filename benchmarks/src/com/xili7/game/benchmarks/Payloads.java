@@ -0,0 +1,45 @@
+package com.xili7.game.benchmarks;
+
+import com.xili7.game.network.MessageParser.PlayerSnapshot;
+import com.xili7.game.online.MessageParser.PlayerState;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Realistic protocol payloads shared by the benchmarks.
+ *
+ * Values look like mid-game birds: fixed x, y anywhere inside the playfield
+ * with full float precision, small scores. Seeded so runs are comparable.
+ */
+final class Payloads {
+    private Payloads() {
+    }
+
+    static List<PlayerState> onlineStates(int players) {
+        Random random = new Random(42L + players);
+        List<PlayerState> states = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            states.add(new PlayerState("P" + (i + 1), 25f, 30f + random.nextFloat() * 160f, random.nextInt(60)));
+        }
+        return states;
+    }
+
+    static Map<String, PlayerSnapshot> networkSnapshots(int players) {
+        Random random = new Random(42L + players);
+        Map<String, PlayerSnapshot> snapshots = new LinkedHashMap<>();
+        for (int i = 0; i < players; i++) {
+            String playerId = "P" + (i + 1);
+            snapshots.put(playerId, new PlayerSnapshot(
+                playerId,
+                random.nextFloat() * 100f,
+                30f + random.nextFloat() * 160f,
+                random.nextBoolean() ? "FLYING" : "FALLING"
+            ));
+        }
+        return snapshots;
+    }
+}
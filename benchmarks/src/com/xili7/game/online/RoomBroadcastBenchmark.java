@@ -0,0 +1,149 @@
+package com.xili7.game.online;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * CPU cost of OnlineServer's room paths with sockets replaced by in-memory sinks.
+ *
+ * Lives in the online package to reach the server's package-private
+ * benchmark hooks. Every room member is a sink {@code Connection} over a
+ * counting writer: sends are written synchronously on the calling thread
+ * and inbound lines go through {@code handleLine}, so the numbers cover room
+ * iteration, member list copies, string building, codec decoding and the
+ * connection's send path, but no network or write threads.
+ *
+ * - snapshotTick: one BULK_STATE tick over every room
+ * - stateRelay: one STATE from every player, relayed to its room
+ * - serverSecond: one simulated second, i.e. tickRate snapshot ticks plus
+ *   60 STATE relays per player
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomBroadcastBenchmark {
+    private static final int CLIENT_STATE_RATE = 60;
+
+    @Param({"10", "100", "1000"})
+    public int roomCount;
+
+    @Param({"2", "8", "32"})
+    public int roomSize;
+
+    @Param({"10", "20", "60"})
+    public int tickRate;
+
+    private OnlineServer server;
+    private List<Consumer<String>> inbound;
+    private String[] stateLines;
+    private List<CountingSink> sinks;
+
+    /**
+     * Writer that only counts characters, standing in for a socket.
+     */
+    static final class CountingSink extends Writer {
+        private long chars;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            chars += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            chars += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        long chars() {
+            return chars;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        server = new OnlineServer(0);
+        inbound = new ArrayList<>(roomCount * roomSize);
+        sinks = new ArrayList<>(roomCount * roomSize);
+        for (int room = 0; room < roomCount; room++) {
+            List<CountingSink> roomSinks = new ArrayList<>(roomSize);
+            for (int member = 0; member < roomSize; member++) {
+                roomSinks.add(new CountingSink());
+            }
+            sinks.addAll(roomSinks);
+            inbound.addAll(server.openSinkRoom(roomSinks));
+        }
+
+        Random random = new Random(7L);
+        stateLines = new String[inbound.size()];
+        for (int i = 0; i < stateLines.length; i++) {
+            stateLines[i] = MessageParser.state("P" + (i + 1), 25f, 30f + random.nextFloat() * 160f, random.nextInt(60));
+        }
+        // Fill players with realistic positions before the first tick.
+        stateRelay();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long total = 0;
+        for (CountingSink sink : sinks) {
+            total += sink.chars();
+        }
+        System.out.println("sink chars written: " + total);
+    }
+
+    @Benchmark
+    public void snapshotTick() {
+        server.runSnapshotTick();
+    }
+
+    @Benchmark
+    public void stateRelay() {
+        for (int i = 0; i < stateLines.length; i++) {
+            inbound.get(i).accept(stateLines[i]);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public void serverSecond() {
+        int relaysPerTick = Math.max(1, CLIENT_STATE_RATE / tickRate);
+        for (int tick = 0; tick < tickRate; tick++) {
+            for (int relay = 0; relay < relaysPerTick; relay++) {
+                stateRelay();
+            }
+            server.runSnapshotTick();
+        }
+    }
+}
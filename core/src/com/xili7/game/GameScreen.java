@@ -3,8 +3,8 @@ package com.xili7.game;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputMultiplexer;
-import com.badlogic.gdx.Preferences;
 import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.Texture;
@@ -13,7 +13,6 @@ import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.GlyphLayout;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.scenes.scene2d.Stage;
 import com.badlogic.gdx.scenes.scene2d.Touchable;
 import com.badlogic.gdx.scenes.scene2d.ui.ImageButton;
@@ -29,8 +28,14 @@ import com.badlogic.gdx.utils.Scaling;
 import com.badlogic.gdx.utils.viewport.FitViewport;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
+import com.xili7.game.diagnostics.FlightEvents;
 import com.xili7.game.online.MessageParser.PlayerState;
 import com.xili7.game.online.OnlineClient;
+import com.xili7.game.replay.Ghost;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.replay.ReplayRecorder;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
 
 import java.io.IOException;
 import java.util.Map;
@@ -40,17 +45,16 @@ import java.util.concurrent.ConcurrentHashMap;
 public class GameScreen implements Screen {
     private static final int WORLD_HEIGHT = 200;
     private static final int WORLD_WIDTH = 100;
-    private static final String PREFS_NAME = "flappy-bird-online";
     private static final String PREF_BEST_SCORE = "best-score";
+    // Room for the flaps of a long run; the log is reused, so recording does not allocate.
+    private static final int RUN_LOG_CAPACITY = 4096;
+    private static final float GHOST_ALPHA = 0.4f;
 
     private enum PauseView {
         MENU,
         OPTIONS
     }
 
-    private final float pipeSpaceWidth = 4f * WORLD_WIDTH / 6f;
-    private final float pipeSpaceHeight = WORLD_HEIGHT / 3f;
-
     private final MyGdxGame game;
     private final OnlineClient onlineClient;
     private final boolean onlineMode;
@@ -63,7 +67,6 @@ public class GameScreen implements Screen {
     private BitmapFont scoreFont;
     private BitmapFont promptFont;
     private GlyphLayout glyphLayout;
-    private Preferences preferences;
 
     private Texture skyTexture;
     private Texture groundTexture;
@@ -77,22 +80,26 @@ public class GameScreen implements Screen {
 
     private Animation<TextureRegion> birdAnimation;
 
-    private float birdX;
-    private float birdY;
-    private float birdWidth;
-    private float birdHeight;
-    private float birdVelocity;
-    private float birdRotation;
-
+    private final float birdX = CourseGeometry.BIRD_X;
+    private final float birdWidth = CourseGeometry.BIRD_WIDTH;
+    private final float birdHeight = CourseGeometry.BIRD_HEIGHT;
+    private final float pipeSpaceHeight = CourseGeometry.PIPE_GAP;
+
+    // Gameplay state lives in the simulation; this screen feeds it taps and draws it.
+    private Simulation simulation;
+    // Flaps of the current run, submitted online for server-side verification.
+    private InputLog runLog;
+    private volatile String runVerdict;
+    // Single-player only: a recorded run replayed on the same course, drawn like a remote bird.
+    private Ghost ghost;
+    private boolean flapQueued;
     private float groundOffset;
-    private float pipeTimer;
+    private float stepTimer;
     private float animationTime;
 
-    private Vector2[] pipes;
-    private boolean[] scoreCounted;
     private Random random;
 
-    private boolean notReady;
+    private boolean waitingForOnlineStart;
     private boolean gameOver;
     private boolean newBest;
     private boolean paused;
@@ -112,13 +119,25 @@ public class GameScreen implements Screen {
     private Texture mainMenuButtonTexture;
 
     public GameScreen(MyGdxGame game) {
-        this(game, null);
+        this(game, null, null);
     }
 
     public GameScreen(MyGdxGame game, OnlineClient onlineClient) {
+        this(game, onlineClient, null);
+    }
+
+    /**
+     * Single player racing {@code ghost}, e.g. the server's best run.
+     */
+    public GameScreen(MyGdxGame game, Ghost ghost) {
+        this(game, null, ghost);
+    }
+
+    private GameScreen(MyGdxGame game, OnlineClient onlineClient, Ghost ghost) {
         this.game = game;
         this.onlineClient = onlineClient;
         this.onlineMode = onlineClient != null;
+        this.ghost = ghost;
     }
 
     @Override
@@ -138,8 +157,7 @@ public class GameScreen implements Screen {
 
         game.applyMusicState();
 
-        preferences = Gdx.app.getPreferences(PREFS_NAME);
-        bestScore = preferences.getInteger(PREF_BEST_SCORE, 0);
+        bestScore = game.getSettings().getInteger(PREF_BEST_SCORE, 0);
 
         skyTexture = new Texture("png/stage_sky.png");
         groundTexture = new Texture("png/stage_ground.png");
@@ -155,8 +173,6 @@ public class GameScreen implements Screen {
         birdAnimation = new Animation<>(1 / 14f, birdRegions, Animation.PlayMode.LOOP_REVERSED);
 
         random = new Random();
-        pipes = new Vector2[4];
-        scoreCounted = new boolean[4];
 
         createPauseUi();
 
@@ -164,6 +180,8 @@ public class GameScreen implements Screen {
 
         if (onlineMode) {
             initializeOnlineClient();
+            // The first run of a match starts at the server-scheduled START time, not on tap.
+            waitingForOnlineStart = onlineClient.hasScheduledStart();
         }
     }
 
@@ -276,28 +294,32 @@ public class GameScreen implements Screen {
     }
 
     private void resetGame() {
-        birdWidth = 0.15f * WORLD_WIDTH;
-        birdHeight = WORLD_HEIGHT / 17f;
-        birdX = 0.25f * WORLD_WIDTH;
-        birdY = 0.5f * WORLD_HEIGHT;
-        birdVelocity = 0;
-        birdRotation = 0;
-
-        pipes[0] = new Vector2(2f * WORLD_WIDTH, 0.5f * WORLD_HEIGHT);
-        scoreCounted[0] = false;
-        for (int i = 1; i < 4; i++) {
-            pipes[i] = new Vector2(pipes[i - 1].x + pipeSpaceWidth, randomPipeY());
-            scoreCounted[i] = false;
+        // Offline runs get a fresh seed (or the ghost's course); online runs replay the room's course from START.
+        long seed;
+        if (onlineMode && onlineClient.hasCourseSeed()) {
+            seed = onlineClient.getCourseSeed();
+        } else if (ghost != null) {
+            seed = ghost.seed();
+            ghost.restart();
+        } else {
+            seed = random.nextLong();
+        }
+        simulation = new Simulation(seed);
+        if (runLog == null) {
+            runLog = new InputLog(simulation.course().seed(), RUN_LOG_CAPACITY);
+        } else {
+            runLog.reset(simulation.course().seed());
         }
+        runVerdict = null;
+        flapQueued = false;
 
         setPaused(false);
         setPauseView(PauseView.MENU);
-        notReady = true;
         gameOver = false;
         newBest = false;
         currentScore = 0;
         groundOffset = 0;
-        pipeTimer = 0;
+        stepTimer = 0;
         animationTime = 0;
     }
 
@@ -325,6 +347,11 @@ public class GameScreen implements Screen {
             public void onPlayerLeft(String playerId) {
                 remotePlayers.remove(playerId);
             }
+
+            @Override
+            public void onRunVerified(String outcome, int verifiedScore) {
+                runVerdict = "ACCEPTED".equals(outcome) ? "VERIFIED" : outcome + " (" + verifiedScore + ")";
+            }
         });
 
         try {
@@ -334,10 +361,6 @@ public class GameScreen implements Screen {
         }
     }
 
-    private float randomPipeY() {
-        return (random.nextFloat() * 0.4f + 0.2f) * WORLD_HEIGHT;
-    }
-
     private boolean jumpPressed() {
         return Gdx.input.justTouched()
             || Gdx.input.isKeyJustPressed(Input.Keys.SPACE)
@@ -365,6 +388,25 @@ public class GameScreen implements Screen {
 
         animationTime += delta;
 
+        if (waitingForOnlineStart) {
+            long untilStart = onlineClient.millisUntilStart();
+            if (untilStart > 0) {
+                return;
+            }
+            waitingForOnlineStart = false;
+            simulation.start();
+            // Only the part of this frame after the shared start time moves the course,
+            // so both players' pipes stay on the same 5 ms step.
+            stepTimer = Math.min(-untilStart / 1000f, delta) - delta;
+        }
+
+        boolean waitingForRun = gameOver || (simulation.phase() == Simulation.Phase.READY && !flapQueued);
+        if (!onlineMode && waitingForRun && Gdx.input.isKeyJustPressed(Input.Keys.G)) {
+            ghost = ghost == null ? game.createBestRunGhost() : null;
+            resetGame();
+            return;
+        }
+
         if (gameOver) {
             if (jumpPressed()) {
                 resetGame();
@@ -373,73 +415,52 @@ public class GameScreen implements Screen {
         }
 
         if (jumpPressed()) {
-            notReady = false;
-            birdVelocity = 130;
-            birdRotation = 0;
+            // Applied on the next course step, even if this frame is shorter than one.
+            flapQueued = true;
 
             if (onlineMode && onlineClient.isConnected()) {
                 onlineClient.sendJump();
             }
         }
 
-        if (!notReady) {
-            pipeTimer += delta;
-            while (0.005f < pipeTimer) {
-                pipeTimer -= 0.005f;
-                for (int i = 0; i < 4; i++) {
-                    pipes[i].x -= 0.0025f * WORLD_WIDTH;
-
-                    if (pipes[i].x < -WORLD_WIDTH / 6f) {
-                        pipes[i].x = pipes[(i + 3) % 4].x + pipeSpaceWidth;
-                        pipes[i].y = randomPipeY();
-                        scoreCounted[i] = false;
-                    }
-
-                    if (!scoreCounted[i] && pipes[i].x < (birdX + birdWidth / 2f)) {
-                        currentScore++;
-                        scoreCounted[i] = true;
-                    }
+        if (flapQueued || simulation.phase() == Simulation.Phase.RUNNING) {
+            stepTimer += delta;
+            while (CourseGeometry.STEP_SECONDS < stepTimer) {
+                stepTimer -= CourseGeometry.STEP_SECONDS;
+                if (flapQueued) {
+                    runLog.recordFlap(simulation.tick());
+                }
+                boolean alive = simulation.step(flapQueued);
+                flapQueued = false;
+                if (!alive) {
+                    break;
                 }
             }
-
-            birdVelocity -= 400 * delta;
-            birdY += birdVelocity * delta;
-            if (birdVelocity < 0) {
-                birdRotation = -45;
+            currentScore = simulation.score();
+            if (ghost != null) {
+                ghost.advanceTo(simulation.tick());
             }
 
-            checkCollision();
-
             groundOffset -= WORLD_WIDTH / 20f;
             if (groundOffset <= -WORLD_WIDTH / 20f) {
                 groundOffset = 0;
             }
 
             if (onlineMode && onlineClient.isConnected()) {
-                onlineClient.sendState(birdX, birdY, currentScore);
+                onlineClient.sendState(birdX, simulation.birdY(), currentScore, simulation.tick());
             }
-        }
-    }
-
-    private void checkCollision() {
-        if (birdY >= WORLD_HEIGHT - birdHeight) {
-            birdY = WORLD_HEIGHT - birdHeight;
-            birdVelocity = 0;
-        }
 
-        if (0.15f * WORLD_HEIGHT > birdY) {
-            handleGameOver();
-            return;
+            if (!simulation.isAlive()) {
+                handleGameOver();
+            }
         }
+    }
 
-        for (Vector2 pipe : pipes) {
-            if (birdX + birdWidth >= pipe.x && birdX < pipe.x + WORLD_WIDTH / 6f) {
-                if (birdY < (pipe.y + WORLD_HEIGHT / 30f) || birdY + birdHeight > pipe.y + pipeSpaceHeight) {
-                    handleGameOver();
-                    return;
-                }
-            }
+    private float birdRotation() {
+        if (!simulation.isAlive()) {
+            return -90;
         }
+        return simulation.velocity() < 0 ? -45 : 0;
     }
 
     private BitmapFont createCrispFont(float scale) {
@@ -454,15 +475,28 @@ public class GameScreen implements Screen {
 
     private void handleGameOver() {
         gameOver = true;
-        birdRotation = -90;
-        birdY = 0.15f * WORLD_HEIGHT;
+
+        boolean online = onlineMode && onlineClient.isConnected();
+        if (online) {
+            onlineClient.submitRun(runLog, currentScore);
+        }
+        ReplayRecorder replayRecorder = game.getReplayRecorder();
+        if (replayRecorder != null) {
+            replayRecorder.record(online ? onlineClient.getRoomId() : null,
+                online ? onlineClient.getPlayerId() : null, currentScore, simulation.tick(), runLog);
+        }
 
         if (currentScore > bestScore) {
             bestScore = currentScore;
             newBest = true;
-            preferences.putInteger(PREF_BEST_SCORE, bestScore);
-            preferences.flush();
+            game.getSettings().putInteger(PREF_BEST_SCORE, bestScore);
         }
+        game.offerBestRun(currentScore, simulation.tick(), runLog);
+    }
+
+    // Birds other than the player's: remote players and the ghost share this path.
+    private void drawRemoteBird(TextureRegion frame, float x, float y) {
+        batch.draw(frame, x, y, birdWidth / 2f, birdHeight / 2f, birdWidth, birdHeight, 1f, 1f, 0f);
     }
 
     private void drawCenteredText(BitmapFont font, String text, float y, boolean bold) {
@@ -476,6 +510,9 @@ public class GameScreen implements Screen {
 
     @Override
     public void render(float delta) {
+        FlightEvents.Frame frameEvent = new FlightEvents.Frame();
+        frameEvent.begin();
+
         update(delta);
 
         Gdx.gl.glClearColor(0, 0, 0, 1);
@@ -489,19 +526,28 @@ public class GameScreen implements Screen {
 
         batch.draw(skyTexture, 0, 0.15f * WORLD_HEIGHT, WORLD_WIDTH, 0.85f * WORLD_HEIGHT);
 
-        for (Vector2 pipe : pipes) {
-            batch.draw(pipeHeadTexture2, pipe.x, pipe.y, WORLD_WIDTH / 6f, WORLD_HEIGHT / 30f);
-            batch.draw(pipeBodyTexture, pipe.x + (WORLD_WIDTH / 200f), 0.15f * WORLD_HEIGHT, (WORLD_WIDTH / 6f) - (WORLD_WIDTH / 100f), pipe.y - 0.15f * WORLD_HEIGHT);
-            batch.draw(pipeBodyTexture, pipe.x + (WORLD_WIDTH / 200f), pipe.y + pipeSpaceHeight + (WORLD_WIDTH / 30f), (WORLD_WIDTH / 6f) - (WORLD_WIDTH / 100f), WORLD_HEIGHT / 2f);
-            batch.draw(pipeHeadTexture1, pipe.x, pipe.y + pipeSpaceHeight, WORLD_WIDTH / 6f, WORLD_HEIGHT / 30f);
+        long firstPipe = CourseGeometry.firstVisiblePipe(simulation.tick());
+        for (long pipe = firstPipe; pipe < firstPipe + CourseGeometry.PIPE_COUNT; pipe++) {
+            float pipeX = (float) CourseGeometry.pipeX(pipe, simulation.tick());
+            float pipeY = simulation.course().gapY(pipe);
+            batch.draw(pipeHeadTexture2, pipeX, pipeY, WORLD_WIDTH / 6f, WORLD_HEIGHT / 30f);
+            batch.draw(pipeBodyTexture, pipeX + (WORLD_WIDTH / 200f), 0.15f * WORLD_HEIGHT, (WORLD_WIDTH / 6f) - (WORLD_WIDTH / 100f), pipeY - 0.15f * WORLD_HEIGHT);
+            batch.draw(pipeBodyTexture, pipeX + (WORLD_WIDTH / 200f), pipeY + pipeSpaceHeight + (WORLD_WIDTH / 30f), (WORLD_WIDTH / 6f) - (WORLD_WIDTH / 100f), WORLD_HEIGHT / 2f);
+            batch.draw(pipeHeadTexture1, pipeX, pipeY + pipeSpaceHeight, WORLD_WIDTH / 6f, WORLD_HEIGHT / 30f);
         }
 
         TextureRegion birdFrame = birdAnimation.getKeyFrame(animationTime, true);
-        batch.draw(birdFrame, birdX, birdY, birdWidth / 2f, birdHeight / 2f, birdWidth, birdHeight, 1f, 1f, birdRotation);
+        if (ghost != null && ghost.isAlive()) {
+            batch.setColor(1f, 1f, 1f, GHOST_ALPHA);
+            drawRemoteBird(birdFrame, birdX, ghost.birdY());
+            batch.setColor(Color.WHITE);
+        }
+
+        batch.draw(birdFrame, birdX, simulation.birdY(), birdWidth / 2f, birdHeight / 2f, birdWidth, birdHeight, 1f, 1f, birdRotation());
 
         if (onlineMode) {
             for (PlayerState remote : remotePlayers.values()) {
-                batch.draw(birdFrame, remote.x(), remote.y(), birdWidth / 2f, birdHeight / 2f, birdWidth, birdHeight, 1f, 1f, 0f);
+                drawRemoteBird(birdFrame, remote.x(), remote.y());
             }
         }
 
@@ -515,20 +561,50 @@ public class GameScreen implements Screen {
             if (newBest) {
                 drawCenteredText(scoreFont, "NEW BEST!", 0.46f * WORLD_HEIGHT, true);
             }
+            String verdict = runVerdict;
+            if (verdict != null) {
+                drawCenteredText(promptFont, verdict, 0.39f * WORLD_HEIGHT, true);
+            }
             drawCenteredText(promptFont, "SPACE/ENTER para reiniciar", 0.32f * WORLD_HEIGHT, true);
         } else {
             drawCenteredText(scoreFont, "SCORE: " + currentScore, 0.92f * WORLD_HEIGHT, true);
-            if (notReady) {
+            if (waitingForOnlineStart) {
+                long secondsLeft = Math.max(1L, (onlineClient.millisUntilStart() + 999L) / 1000L);
+                drawCenteredText(titleFont, Long.toString(secondsLeft), 0.7f * WORLD_HEIGHT, true);
+            } else if (simulation.phase() == Simulation.Phase.READY && !flapQueued) {
                 drawCenteredText(hudFont, "TAP/SPACE", 0.7f * WORLD_HEIGHT, true);
+                if (!onlineMode && (ghost != null || game.hasBestRun())) {
+                    drawCenteredText(promptFont, ghost != null ? "G: NO GHOST" : "G: RACE YOUR BEST",
+                        0.64f * WORLD_HEIGHT, true);
+                }
             }
         }
 
+        if (ghost != null) {
+            promptFont.draw(batch, "GHOST " + ghost.currentScore(), 2f, WORLD_HEIGHT - 2f);
+        }
+
+        if (onlineMode) {
+            long rtt = onlineClient.getRttMillis();
+            String link = onlineClient.isReconnecting() ? "RECONNECTING..."
+                : rtt < 0 ? "RTT --" : "RTT " + rtt + " ms";
+            promptFont.draw(batch, link, 2f, WORLD_HEIGHT - 2f);
+        }
+
         batch.end();
 
         if (paused) {
             pauseStage.getViewport().apply();
             pauseStage.draw();
         }
+
+        frameEvent.end();
+        if (frameEvent.shouldCommit()) {
+            frameEvent.delta = delta;
+            frameEvent.online = onlineMode;
+            frameEvent.remoteBirds = remotePlayers.size();
+            frameEvent.commit();
+        }
     }
 
     @Override
@@ -0,0 +1,219 @@
+package com.xili7.game;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Input;
+import com.badlogic.gdx.Screen;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.scenes.scene2d.Stage;
+import com.badlogic.gdx.scenes.scene2d.ui.Image;
+import com.badlogic.gdx.scenes.scene2d.ui.Label;
+import com.badlogic.gdx.scenes.scene2d.ui.Skin;
+import com.badlogic.gdx.scenes.scene2d.ui.Table;
+import com.badlogic.gdx.scenes.scene2d.ui.TextButton;
+import com.badlogic.gdx.scenes.scene2d.utils.ChangeListener;
+import com.badlogic.gdx.utils.Align;
+import com.badlogic.gdx.utils.Scaling;
+import com.badlogic.gdx.utils.viewport.ScreenViewport;
+import com.xili7.game.leaderboard.Leaderboard.Standing;
+import com.xili7.game.online.MessageParser.LeaderboardPage;
+import com.xili7.game.online.OnlineClient;
+
+/**
+ * The server's top players, plus where this player stands.
+ */
+public class LeaderboardScreen implements Screen {
+    private static final int ROWS = 10;
+
+    private final MyGdxGame game;
+    private final OnlineClient onlineClient;
+    private final String playerName;
+
+    private Stage stage;
+    private Skin skin;
+    private Texture backgroundTexture;
+    private Table standingsTable;
+    private Label ownLabel;
+    private Label statusLabel;
+
+    /**
+     * @param playerName whose rank to show, or {@code null} for none
+     */
+    public LeaderboardScreen(MyGdxGame game, OnlineClient onlineClient, String playerName) {
+        this.game = game;
+        this.onlineClient = onlineClient;
+        this.playerName = playerName;
+    }
+
+    @Override
+    public void show() {
+        stage = new Stage(new ScreenViewport(), game.getBatch());
+        skin = UiSkinFactory.createDefaultSkin();
+
+        backgroundTexture = new Texture("png/stage_sky.png");
+        Image background = new Image(backgroundTexture);
+        background.setFillParent(true);
+        background.setScaling(Scaling.fill);
+        stage.addActor(background);
+
+        Table root = new Table();
+        root.setFillParent(true);
+        root.defaults().pad(6f);
+
+        Label title = new Label("LEADERBOARD", skin);
+        standingsTable = new Table();
+        standingsTable.defaults().padLeft(8f).padRight(8f);
+        ownLabel = new Label(playerName == null ? "Enter a player name to be ranked" : "", skin);
+        statusLabel = new Label("Loading...", skin);
+        TextButton refreshButton = new TextButton("Refresh", skin);
+        TextButton backButton = new TextButton("Back", skin);
+
+        refreshButton.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
+                refresh();
+            }
+        });
+
+        backButton.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
+                onlineClient.disconnect();
+                game.setScreen(new OnlineMenuScreen(game));
+            }
+        });
+
+        root.add(title).row();
+        root.add(standingsTable).row();
+        root.add(ownLabel).row();
+        root.add(statusLabel).row();
+        root.add(refreshButton).width(220f).row();
+        root.add(backButton).width(220f).row();
+        stage.addActor(root);
+
+        onlineClient.setListener(new OnlineClient.Listener() {
+            @Override
+            public void onLeaderboard(LeaderboardPage page) {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        showStandings(page);
+                    }
+                });
+            }
+
+            @Override
+            public void onRank(Standing standing) {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        ownLabel.setText(standing.rank() == 0
+                            ? standing.player() + ": no verified run yet"
+                            : standing.player() + ": #" + standing.rank() + " with " + standing.score());
+                    }
+                });
+            }
+
+            @Override
+            public void onServerError(String errorMessage) {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        statusLabel.setText("Server error: " + errorMessage);
+                    }
+                });
+            }
+
+            @Override
+            public void onDisconnected() {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        statusLabel.setText("Disconnected from server");
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        statusLabel.setText("Network error: " + exception.getMessage());
+                    }
+                });
+            }
+        });
+        refresh();
+
+        Gdx.input.setInputProcessor(stage);
+    }
+
+    private void refresh() {
+        onlineClient.requestLeaderboard(ROWS);
+        onlineClient.requestRank(playerName);
+    }
+
+    private void showStandings(LeaderboardPage page) {
+        standingsTable.clearChildren();
+        for (Standing standing : page.standings()) {
+            Label rank = new Label("#" + standing.rank(), skin);
+            Label name = new Label(standing.player(), skin);
+            Label score = new Label(Integer.toString(standing.score()), skin);
+            rank.setAlignment(Align.right);
+            score.setAlignment(Align.right);
+            standingsTable.add(rank).width(50f);
+            standingsTable.add(name).width(180f);
+            standingsTable.add(score).width(60f).row();
+        }
+        statusLabel.setText(page.players() == 0
+            ? "No verified runs on this server yet"
+            : page.players() + (page.players() == 1 ? " player ranked" : " players ranked"));
+    }
+
+    @Override
+    public void render(float delta) {
+        if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
+            onlineClient.disconnect();
+            game.setScreen(new OnlineMenuScreen(game));
+            return;
+        }
+
+        Gdx.gl.glClearColor(0f, 0f, 0f, 1f);
+        Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+
+        stage.act(delta);
+        stage.draw();
+    }
+
+    @Override
+    public void resize(int width, int height) {
+        stage.getViewport().update(width, height, true);
+    }
+
+    @Override
+    public void pause() {
+    }
+
+    @Override
+    public void resume() {
+    }
+
+    @Override
+    public void hide() {
+        Gdx.input.setInputProcessor(null);
+    }
+
+    @Override
+    public void dispose() {
+        if (stage != null) {
+            stage.dispose();
+        }
+        if (skin != null) {
+            skin.dispose();
+        }
+        if (backgroundTexture != null) {
+            backgroundTexture.dispose();
+        }
+    }
+}
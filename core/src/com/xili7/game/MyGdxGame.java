@@ -2,11 +2,21 @@ package com.xili7.game;
 
 import com.badlogic.gdx.Game;
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.Preferences;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.xili7.game.metrics.MetricsRegistry;
+import com.xili7.game.replay.Ghost;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.replay.ReplayCodec;
+import com.xili7.game.replay.ReplayRecorder;
+import com.xili7.game.sim.Simulation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Created by liray on 12/11/2015.
@@ -15,11 +25,21 @@ public class MyGdxGame extends Game {
     private static final String PREFS_NAME = "flappy-bird-online";
     private static final String PREF_MUSIC_VOLUME = "music-volume";
     private static final String PREF_MUSIC_MUTED = "music-muted";
+    private static final String REPLAY_FILE = "replays/runs.fbr";
+    // Each new personal best is appended, so the last record is the best run.
+    private static final String BEST_RUN_FILE = "replays/best.fbr";
+    private static final int REPLAY_BUFFERS = 4;
+    // Long enough to cover a slider drag, short enough that a crash loses little.
+    private static final long SETTINGS_DEBOUNCE_MILLIS = 500L;
 
     private SpriteBatch batch;
     private BitmapFont font;
     public Music backgroundMusic;
-    private Preferences preferences;
+    private ReplayRecorder replayRecorder;
+    private ReplayRecorder bestRunRecorder;
+    private InputLog bestRunLog;
+    private int bestRunScore;
+    private SettingsStore settings;
     public float volume;
     public boolean isMuted;
 
@@ -27,9 +47,9 @@ public class MyGdxGame extends Game {
     public void create() {
         batch = new SpriteBatch();
         font = new BitmapFont();
-        preferences = Gdx.app.getPreferences(PREFS_NAME);
-        volume = preferences.getFloat(PREF_MUSIC_VOLUME, 0.5f);
-        isMuted = preferences.getBoolean(PREF_MUSIC_MUTED, false);
+        settings = new SettingsStore(Gdx.app.getPreferences(PREFS_NAME), SETTINGS_DEBOUNCE_MILLIS);
+        volume = settings.getFloat(PREF_MUSIC_VOLUME, 0.5f);
+        isMuted = settings.getBoolean(PREF_MUSIC_MUTED, false);
 
         FileHandle preferredMusic = Gdx.files.internal("sound/Juego35.wav");
         FileHandle fallbackMusic = Gdx.files.internal("png/Juego 35.wav");
@@ -40,6 +60,14 @@ public class MyGdxGame extends Game {
         backgroundMusic.play();
         applyMusicState();
 
+        try {
+            replayRecorder = new ReplayRecorder(Gdx.files.local(REPLAY_FILE).file().toPath(), REPLAY_BUFFERS,
+                new MetricsRegistry());
+        } catch (IOException e) {
+            System.err.println("Replays will not be recorded: " + e.getMessage());
+        }
+        loadBestRun(Gdx.files.local(BEST_RUN_FILE).file().toPath());
+
         setScreen(new MainMenuScreen(this));
     }
 
@@ -51,21 +79,75 @@ public class MyGdxGame extends Game {
         return font;
     }
 
+    /**
+     * A ghost of the best run recorded on this device, or {@code null} if there is none yet.
+     */
+    public Ghost createBestRunGhost() {
+        return bestRunLog == null ? null : new Ghost(bestRunLog, bestRunScore);
+    }
+
+    public boolean hasBestRun() {
+        return bestRunLog != null;
+    }
+
+    /**
+     * Keeps the run as the one to race against if it beats the current best run.
+     */
+    public void offerBestRun(int score, long ticks, InputLog log) {
+        if (bestRunLog != null && score <= bestRunScore) {
+            return;
+        }
+        bestRunLog = log.copy();
+        bestRunScore = score;
+        if (bestRunRecorder != null) {
+            bestRunRecorder.record(null, null, score, ticks, bestRunLog);
+        }
+    }
+
+    private void loadBestRun(Path file) {
+        try {
+            if (Files.exists(file)) {
+                List<ReplayCodec.RecordedRun> runs = ReplayCodec.readAll(file);
+                ReplayCodec.RecordedRun best = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                // A run recorded under other physics would not replay the same way.
+                if (best != null && best.physicsVersion() == Simulation.PHYSICS_VERSION) {
+                    bestRunLog = best.log();
+                    bestRunScore = best.score();
+                }
+            }
+            bestRunRecorder = new ReplayRecorder(file, 1, new MetricsRegistry());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Best run will not be kept: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saved settings; changes are written in the background.
+     */
+    public SettingsStore getSettings() {
+        return settings;
+    }
+
+    /**
+     * Where every finished run is recorded, or {@code null} if the replay file could not be opened.
+     */
+    public ReplayRecorder getReplayRecorder() {
+        return replayRecorder;
+    }
+
     public void setMusicVolume(float volume) {
         this.volume = Math.max(0f, Math.min(1f, volume));
         applyMusicState();
-        if (preferences != null) {
-            preferences.putFloat(PREF_MUSIC_VOLUME, this.volume);
-            preferences.flush();
+        if (settings != null) {
+            settings.putFloat(PREF_MUSIC_VOLUME, this.volume);
         }
     }
 
     public void setMuted(boolean muted) {
         isMuted = muted;
         applyMusicState();
-        if (preferences != null) {
-            preferences.putBoolean(PREF_MUSIC_MUTED, isMuted);
-            preferences.flush();
+        if (settings != null) {
+            settings.putBoolean(PREF_MUSIC_MUTED, isMuted);
         }
     }
 
@@ -91,6 +173,17 @@ public class MyGdxGame extends Game {
             backgroundMusic.dispose();
             backgroundMusic = null;
         }
+        if (replayRecorder != null) {
+            replayRecorder.close();
+            replayRecorder = null;
+        }
+        if (bestRunRecorder != null) {
+            bestRunRecorder.close();
+            bestRunRecorder = null;
+        }
+        if (settings != null) {
+            settings.close();
+        }
 
         font.dispose();
         batch.dispose();
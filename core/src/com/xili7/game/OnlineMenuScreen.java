@@ -17,6 +17,8 @@ import com.badlogic.gdx.utils.Scaling;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
 import com.xili7.game.online.OnlineClient;
 import com.xili7.game.online.OnlineServer;
+import com.xili7.game.replay.Ghost;
+import com.xili7.game.replay.InputLog;
 
 import java.io.IOException;
 import java.net.Inet4Address;
@@ -50,6 +52,8 @@ public class OnlineMenuScreen implements Screen {
     private TextField roomIdField;
     private TextButton createRoomButton;
     private TextButton joinRoomButton;
+    private TextButton ghostButton;
+    private TextButton leaderboardButton;
     private TextButton backButton;
     private ExecutorService networkExecutor;
     private String connectedHost;
@@ -90,11 +94,15 @@ public class OnlineMenuScreen implements Screen {
 
         createRoomButton = new TextButton("Create Room", skin);
         joinRoomButton = new TextButton("Join Room", skin);
+        ghostButton = new TextButton("Race Top Ghost", skin);
+        leaderboardButton = new TextButton("Leaderboard", skin);
         backButton = new TextButton("Back", skin);
 
         createRoomButton.addListener(new ChangeListener() {
             @Override
             public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
+                final String requestedName = playerNameField.getText() == null ? "" : playerNameField.getText().trim();
+
                 runOnlineAction(new OnlineAction() {
                     @Override
                     public void run() throws IOException {
@@ -107,7 +115,7 @@ public class OnlineMenuScreen implements Screen {
                             hostLanIp = lanIp;
                             setStatus("Server active at " + lanIp + ":" + DEFAULT_PORT + ". Creating room...");
                         }
-                        ensureConnected(LOOPBACK_HOST);
+                        ensureConnected(LOOPBACK_HOST, requestedName);
                         onlineClient.createRoom();
                     }
                 });
@@ -142,13 +150,63 @@ public class OnlineMenuScreen implements Screen {
                             return;
                         }
                         setStatus("Joining as " + requestedName + " in room " + requestedRoomId.toUpperCase() + "...");
-                        ensureConnected(hostIp);
+                        ensureConnected(hostIp, requestedName);
                         onlineClient.joinRoom(requestedRoomId);
                     }
                 });
             }
         });
 
+        ghostButton.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
+                final String hostIp = joinHostIpField.getText() == null ? "" : joinHostIpField.getText().trim();
+
+                if (hostIp.isEmpty()) {
+                    statusLabel.setText("Please enter a host IP");
+                    return;
+                }
+
+                runOnlineAction(new OnlineAction() {
+                    @Override
+                    public void run() throws IOException {
+                        if (!isServerReachable(hostIp, DEFAULT_PORT)) {
+                            setStatus("Server is not active at " + hostIp + ":" + DEFAULT_PORT);
+                            return;
+                        }
+                        setStatus("Downloading the top run...");
+                        ensureConnected(hostIp, "");
+                        onlineClient.requestGhost();
+                    }
+                });
+            }
+        });
+
+        leaderboardButton.addListener(new ChangeListener() {
+            @Override
+            public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
+                final String requestedName = playerNameField.getText() == null ? "" : playerNameField.getText().trim();
+                final String hostIp = joinHostIpField.getText() == null ? "" : joinHostIpField.getText().trim();
+
+                if (hostIp.isEmpty()) {
+                    statusLabel.setText("Please enter a host IP");
+                    return;
+                }
+
+                runOnlineAction(new OnlineAction() {
+                    @Override
+                    public void run() throws IOException {
+                        if (!isServerReachable(hostIp, DEFAULT_PORT)) {
+                            setStatus("Server is not active at " + hostIp + ":" + DEFAULT_PORT);
+                            return;
+                        }
+                        ensureConnected(hostIp, requestedName);
+                        showLeaderboard(requestedName.isEmpty() ? null : requestedName);
+                    }
+                });
+            }
+        });
+
         backButton.addListener(new ChangeListener() {
             @Override
             public void changed(ChangeEvent event, com.badlogic.gdx.scenes.scene2d.Actor actor) {
@@ -163,6 +221,8 @@ public class OnlineMenuScreen implements Screen {
         root.add(roomIdField).row();
         root.add(createRoomButton).row();
         root.add(joinRoomButton).row();
+        root.add(ghostButton).row();
+        root.add(leaderboardButton).row();
         root.add(backButton).row();
         root.add(statusLabel).width(340f).row();
         stage.addActor(root);
@@ -185,14 +245,17 @@ public class OnlineMenuScreen implements Screen {
         });
     }
 
-    private void ensureConnected(String host) throws IOException {
+    // A non-empty playerName is what the server ranks this player's verified runs under.
+    private void ensureConnected(String host, String playerName) throws IOException {
         synchronized (this) {
             if (onlineClient != null && onlineClient.isConnected() && host.equals(connectedHost)) {
+                onlineClient.setPlayerName(playerName.isEmpty() ? null : playerName);
                 return;
             }
             safeDisconnect();
 
             onlineClient = new OnlineClient(host, DEFAULT_PORT);
+            onlineClient.setPlayerName(playerName.isEmpty() ? null : playerName);
             connectedHost = host;
             onlineClient.setListener(new OnlineClient.Listener() {
                 @Override
@@ -210,6 +273,11 @@ public class OnlineMenuScreen implements Screen {
                     moveToLobby(roomId);
                 }
 
+                @Override
+                public void onGhost(InputLog log, int score) {
+                    raceGhost(log, score);
+                }
+
                 @Override
                 public void onServerError(String errorMessage) {
                     setStatus("Server error: " + errorMessage);
@@ -316,6 +384,30 @@ public class OnlineMenuScreen implements Screen {
         });
     }
 
+    private void showLeaderboard(String playerName) {
+        Gdx.app.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                game.setScreen(new LeaderboardScreen(game, onlineClient, playerName));
+            }
+        });
+    }
+
+    // The ghost is replayed locally, so the race itself needs no connection.
+    private void raceGhost(InputLog log, int score) {
+        Gdx.app.postRunnable(new Runnable() {
+            @Override
+            public void run() {
+                if (log == null) {
+                    statusLabel.setText("No verified runs on this server yet");
+                    return;
+                }
+                safeDisconnect();
+                game.setScreen(new GameScreen(game, new Ghost(log, score)));
+            }
+        });
+    }
+
     private void safeDisconnect() {
         if (onlineClient != null) {
             onlineClient.disconnect();
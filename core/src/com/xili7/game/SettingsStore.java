@@ -0,0 +1,157 @@
+package com.xili7.game;
+
+import com.badlogic.gdx.Preferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Settings kept in memory and written to {@link Preferences} off the render
+ * thread.
+ *
+ * A change only updates the pending values; the first one after a write
+ * schedules the next write {@code debounceMillis} later, so a slider
+ * dragged through dozens of values costs one write per interval instead of
+ * one per value, and the render thread never waits for the file.
+ * {@link #close()} writes whatever is still pending on the calling thread,
+ * so nothing set before {@code dispose} is lost.
+ *
+ * Reads see pending values before they are written. Preferences are only
+ * changed and flushed by the writer (or by {@code close}).
+ */
+public final class SettingsStore implements AutoCloseable {
+    private final Preferences preferences;
+    private final long debounceMillis;
+    private final ScheduledExecutorService writer;
+
+    // Guarded by itself; values are Float, Boolean, Integer or String.
+    private final Map<String, Object> pending = new HashMap<>();
+    private boolean writeScheduled;
+    private boolean closed;
+
+    public SettingsStore(Preferences preferences, long debounceMillis) {
+        this.preferences = preferences;
+        this.debounceMillis = debounceMillis;
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "settings-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public float getFloat(String key, float defaultValue) {
+        Object value = pendingValue(key);
+        return value instanceof Float f ? f : preferences.getFloat(key, defaultValue);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        Object value = pendingValue(key);
+        return value instanceof Boolean b ? b : preferences.getBoolean(key, defaultValue);
+    }
+
+    public int getInteger(String key, int defaultValue) {
+        Object value = pendingValue(key);
+        return value instanceof Integer i ? i : preferences.getInteger(key, defaultValue);
+    }
+
+    public String getString(String key, String defaultValue) {
+        Object value = pendingValue(key);
+        return value instanceof String s ? s : preferences.getString(key, defaultValue);
+    }
+
+    public void putFloat(String key, float value) {
+        put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        put(key, value);
+    }
+
+    public void putInteger(String key, int value) {
+        put(key, value);
+    }
+
+    public void putString(String key, String value) {
+        put(key, value);
+    }
+
+    /**
+     * Writes pending values now, on the calling thread; later changes are
+     * written at once as well.
+     */
+    @Override
+    public void close() {
+        synchronized (pending) {
+            closed = true;
+        }
+        // A scheduled write is not waited for; a running one is, then the rest is written here.
+        writer.shutdownNow();
+        try {
+            writer.awaitTermination(1L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write();
+    }
+
+    private Object pendingValue(String key) {
+        synchronized (pending) {
+            return pending.get(key);
+        }
+    }
+
+    private void put(String key, Object value) {
+        boolean writeNow;
+        synchronized (pending) {
+            pending.put(key, value);
+            writeNow = closed;
+            if (!closed && !writeScheduled) {
+                writeScheduled = true;
+                writer.schedule(this::write, debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (writeNow) {
+            // Closed: there is no writer left to hand this to.
+            write();
+        }
+    }
+
+    private void write() {
+        Map<String, Object> values;
+        synchronized (pending) {
+            writeScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            values = new HashMap<>(pending);
+        }
+        synchronized (preferences) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof Float f) {
+                    preferences.putFloat(entry.getKey(), f);
+                } else if (value instanceof Boolean b) {
+                    preferences.putBoolean(entry.getKey(), b);
+                } else if (value instanceof Integer i) {
+                    preferences.putInteger(entry.getKey(), i);
+                } else {
+                    preferences.putString(entry.getKey(), (String) value);
+                }
+            }
+            try {
+                preferences.flush();
+            } catch (RuntimeException e) {
+                // Kept pending, so the next write or close tries again.
+                System.err.println("Could not save settings: " + e.getMessage());
+                return;
+            }
+        }
+        synchronized (pending) {
+            // Only what was written leaves; a value changed meanwhile stays for the next write.
+            values.forEach(pending::remove);
+        }
+    }
+}
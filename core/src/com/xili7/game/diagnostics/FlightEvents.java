@@ -0,0 +1,147 @@
+package com.xili7.game.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for the game's hot paths.
+ *
+ * Events are only written while a recording is running (e.g.
+ * {@code jcmd <pid> JFR.start} or {@code -XX:StartFlightRecording}). Without
+ * one, begin/commit are no-ops and the JIT removes the event allocation, so
+ * the instrumentation stays compiled into release builds. Fields that cost
+ * something to compute are filled only after {@code shouldCommit()}.
+ *
+ * The per-message events are disabled by default; turn them on in a custom
+ * .jfc (JMC or {@code jfr configure}) when investigating parsing.
+ */
+public final class FlightEvents {
+    private static final String CATEGORY = "Flappy Bird";
+
+    private FlightEvents() {
+    }
+
+    @Name("com.xili7.game.RoomTick")
+    @Label("Room Tick")
+    @Description("One snapshot tick over every room")
+    @Category({CATEGORY, "Server"})
+    @StackTrace(false)
+    public static final class RoomTick extends Event {
+        @Label("Rooms")
+        public int rooms;
+
+        @Label("Players")
+        public int players;
+    }
+
+    @Name("com.xili7.game.SnapshotBroadcast")
+    @Label("Snapshot Broadcast")
+    @Description("Fan-out of one encoded snapshot to the members of a room")
+    @Category({CATEGORY, "Server"})
+    @StackTrace(false)
+    public static final class SnapshotBroadcast extends Event {
+        @Label("Room")
+        public String roomId;
+
+        @Label("Members")
+        public int members;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.xili7.game.MessageParse")
+    @Label("Message Parse")
+    @Category({CATEGORY, "Protocol"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class MessageParse extends Event {
+        @Label("Command")
+        public String command;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("com.xili7.game.SlowSend")
+    @Label("Slow Send")
+    @Description("A socket write that blocked longer than the threshold")
+    @Category({CATEGORY, "Server"})
+    @Threshold("2 ms")
+    public static final class SlowSend extends Event {
+        @Label("Player")
+        public String playerId;
+
+        @Label("Command")
+        public String command;
+
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+    }
+
+    @Name("com.xili7.game.Connection")
+    @Label("Connection")
+    @Description("Client connection opened or closed")
+    @Category({CATEGORY, "Server"})
+    @StackTrace(false)
+    public static final class Connection extends Event {
+        @Label("Player")
+        public String playerId;
+
+        @Label("Remote Address")
+        public String remoteAddress;
+
+        @Label("Action")
+        public String action;
+    }
+
+    @Name("com.xili7.game.ClientMessage")
+    @Label("Client Message")
+    @Description("Handling of one server message in the client read loop")
+    @Category({CATEGORY, "Client"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class ClientMessage extends Event {
+        @Label("Command")
+        public String command;
+    }
+
+    @Name("com.xili7.game.Frame")
+    @Label("Frame")
+    @Description("One GameScreen update + render")
+    @Category({CATEGORY, "Client"})
+    @StackTrace(false)
+    public static final class Frame extends Event {
+        @Label("Delta (s)")
+        public float delta;
+
+        @Label("Online")
+        public boolean online;
+
+        @Label("Remote Birds")
+        public int remoteBirds;
+    }
+
+    /**
+     * Emits a connection lifecycle event.
+     */
+    public static void connection(String playerId, Object remoteAddress, String action) {
+        Connection event = new Connection();
+        if (event.shouldCommit()) {
+            event.playerId = playerId;
+            event.remoteAddress = String.valueOf(remoteAddress);
+            event.action = action;
+            event.commit();
+        }
+    }
+}
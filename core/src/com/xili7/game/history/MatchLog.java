@@ -0,0 +1,354 @@
+package com.xili7.game.history;
+
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.CounterFamily;
+import com.xili7.game.metrics.Histogram;
+import com.xili7.game.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of finished matches, committed in groups.
+ *
+ * {@link #append} only queues the result, so the room and tick threads
+ * that end matches never wait for the disk. A single writer thread takes
+ * everything queued, writes it with one call and makes it durable with one
+ * {@code fsync}; results that end while that sync is in flight form the
+ * next group, so the syncs per second stay bounded however many rooms
+ * finish at once. The future returned by {@code append} completes once the
+ * result is on disk. When {@code maxPending} results are already waiting,
+ * further ones are dropped and counted rather than queued.
+ *
+ * The file is {@link #MAGIC} followed by records
+ * <pre>
+ *   int32   payload length
+ *   payload:
+ *     string  room id
+ *     int64   started at (epoch millis)
+ *     int64   ended at (epoch millis)
+ *     int32   member count, then per member:
+ *       string  player id
+ *       string  player name (empty if none)
+ *       int32   score
+ *   int32   CRC32C of the payload
+ * </pre>
+ * with strings as an unsigned 16-bit byte length and UTF-8. Opening the log
+ * replays every complete record to the given consumer and cuts off one
+ * torn by a crash.
+ *
+ * Reported through the registry: {@code match_results_logged},
+ * {@code match_log_syncs}, the histogram {@code match_log_group_size} and
+ * {@code match_results_dropped} by reason.
+ */
+public final class MatchLog implements AutoCloseable {
+    public static final int MAGIC = 0x46424D31; // "FBM1"
+
+    private static final long POLL_MILLIS = 100L;
+    private static final int MAX_GROUP = 1024;
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    private record Pending(MatchResult result, CompletableFuture<Void> durable) {
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Pending> pending;
+    private final List<Pending> group = new ArrayList<>();
+    private final CRC32C crc = new CRC32C();
+    private final Thread writer;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_BYTES);
+    private volatile boolean closed;
+
+    private final Counter resultsLogged;
+    private final Counter syncs;
+    private final Histogram groupSize;
+    private final CounterFamily resultsDropped;
+
+    /**
+     * Opens {@code file}, creating it and its directory if needed, and
+     * passes every match already in it to {@code recovered}, oldest first,
+     * before returning.
+     *
+     * @param maxPending how many results may wait for the writer at once
+     */
+    public MatchLog(Path file, int maxPending, MetricsRegistry registry, Consumer<MatchResult> recovered)
+        throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        long validLength = recover(file, recovered);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (validLength == 0L) {
+                channel.truncate(0L);
+                writeFully(ByteBuffer.allocate(Integer.BYTES).putInt(0, MAGIC));
+                channel.force(true);
+            } else {
+                channel.truncate(validLength);
+                channel.position(validLength);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        pending = new ArrayBlockingQueue<>(Math.max(1, maxPending));
+        resultsLogged = registry.counter("match_results_logged");
+        syncs = registry.counter("match_log_syncs");
+        groupSize = registry.histogram("match_log_group_size");
+        resultsDropped = registry.counterFamily("match_results_dropped", "reason");
+        registry.gauge("match_results_pending", pending::size);
+
+        writer = new Thread(this::writeLoop, "match-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Queues one finished match for the next group commit.
+     *
+     * @return completes when the result is durable, or exceptionally if it
+     *         was dropped (log closed, queue full, or a write failed)
+     */
+    public CompletableFuture<Void> append(MatchResult result) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        if (closed) {
+            resultsDropped.get("closed").increment();
+            durable.completeExceptionally(new IllegalStateException("Match log is closed"));
+        } else if (!pending.offer(new Pending(result, durable))) {
+            resultsDropped.get("full").increment();
+            durable.completeExceptionally(new IllegalStateException("Match log queue is full"));
+        }
+        return durable;
+    }
+
+    /**
+     * Commits everything already appended, then closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close match log " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed || !pending.isEmpty()) {
+            Pending first;
+            try {
+                first = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            group.add(first);
+            pending.drainTo(group, MAX_GROUP - 1);
+            commit();
+            group.clear();
+        }
+    }
+
+    private void commit() {
+        int encoded = 0;
+        long committedLength = -1L;
+        try {
+            committedLength = channel.position();
+            buffer.clear();
+            for (Pending entry : group) {
+                try {
+                    encode(entry.result());
+                    encoded++;
+                } catch (IllegalArgumentException e) {
+                    resultsDropped.get("invalid").increment();
+                    entry.durable().completeExceptionally(e);
+                }
+            }
+            buffer.flip();
+            writeFully(buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            resultsDropped.get("io").add(encoded);
+            System.err.println("Could not write match results to " + file + ": " + e.getMessage());
+            discardPartialWrite(committedLength);
+            for (Pending entry : group) {
+                entry.durable().completeExceptionally(e);
+            }
+            return;
+        }
+        syncs.increment();
+        groupSize.record(encoded);
+        resultsLogged.add(encoded);
+        for (Pending entry : group) {
+            entry.durable().complete(null);
+        }
+    }
+
+    // A group written only in part would hide every later record from recovery.
+    private void discardPartialWrite(long committedLength) {
+        if (committedLength < 0L) {
+            return;
+        }
+        try {
+            channel.truncate(committedLength);
+            channel.position(committedLength);
+        } catch (IOException e) {
+            System.err.println("Could not roll back match log " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void encode(MatchResult result) {
+        byte[] roomId = utf8(result.roomId());
+        List<byte[]> strings = new ArrayList<>(2 * result.members().size());
+        int length = Short.BYTES + roomId.length + 2 * Long.BYTES + Integer.BYTES;
+        for (MatchResult.Member member : result.members()) {
+            byte[] playerId = utf8(member.playerId());
+            byte[] playerName = utf8(member.playerName());
+            strings.add(playerId);
+            strings.add(playerName);
+            length += 2 * Short.BYTES + playerId.length + playerName.length + Integer.BYTES;
+        }
+        ensureRoom(length + 2 * Integer.BYTES);
+
+        buffer.putInt(length);
+        int payloadStart = buffer.position();
+        putString(roomId);
+        buffer.putLong(result.startedAtMillis());
+        buffer.putLong(result.endedAtMillis());
+        buffer.putInt(result.members().size());
+        for (int i = 0; i < result.members().size(); i++) {
+            putString(strings.get(2 * i));
+            putString(strings.get(2 * i + 1));
+            buffer.putInt(result.members().get(i).score());
+        }
+        buffer.putInt(checksum(crc, buffer, payloadStart, length));
+    }
+
+    // A group larger than the buffer gets a bigger one; it is kept for the next.
+    private void ensureRoom(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(2 * buffer.capacity(), buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    private void putString(byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    // Returns the length of the file up to the end of its last complete record.
+    private static long recover(Path file, Consumer<MatchResult> recovered) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < Integer.BYTES) {
+            return 0L;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.getInt() != MAGIC) {
+            throw new IOException("Not a match log: " + file);
+        }
+        CRC32C crc = new CRC32C();
+        MatchResult result;
+        while ((result = decode(in, crc)) != null) {
+            recovered.accept(result);
+        }
+        return in.position();
+    }
+
+    // Decodes the record at the position of in and moves past it; null at a torn tail.
+    private static MatchResult decode(ByteBuffer in, CRC32C crc) {
+        int start = in.position();
+        if (in.remaining() < 2 * Integer.BYTES) {
+            return null;
+        }
+        int length = in.getInt(start);
+        int payloadStart = start + Integer.BYTES;
+        if (length < 0 || in.remaining() - 2 * Integer.BYTES < length
+            || in.getInt(payloadStart + length) != checksum(crc, in, payloadStart, length)) {
+            return null;
+        }
+        ByteBuffer payload = in.duplicate().position(payloadStart).limit(payloadStart + length);
+        MatchResult result;
+        try {
+            String roomId = getString(payload);
+            long startedAt = payload.getLong();
+            long endedAt = payload.getLong();
+            int count = payload.getInt();
+            if (count < 0 || count > length) {
+                throw new IllegalArgumentException("Bad member count " + count);
+            }
+            List<MatchResult.Member> members = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String playerId = getString(payload);
+                String playerName = getString(payload);
+                members.add(new MatchResult.Member(playerId, playerName.isEmpty() ? null : playerName,
+                    payload.getInt()));
+            }
+            result = new MatchResult(roomId, startedAt, endedAt, members);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Match record shorter than its contents", e);
+        }
+        in.position(payloadStart + length + Integer.BYTES);
+        return result;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("String too long for the match log: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static int checksum(CRC32C crc, ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        crc.update(buffer.duplicate().position(offset).limit(offset + length));
+        return (int) crc.getValue();
+    }
+}
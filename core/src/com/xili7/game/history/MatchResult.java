@@ -0,0 +1,24 @@
+package com.xili7.game.history;
+
+import java.util.List;
+
+/**
+ * How one room's match ended: who played, the score the server judged for
+ * each, and when it ran (wall-clock milliseconds).
+ */
+public record MatchResult(String roomId, long startedAtMillis, long endedAtMillis, List<Member> members) {
+    /**
+     * @param playerName the name the player joined with, or {@code null}
+     * @param score      best score the server accepted during the match
+     */
+    public record Member(String playerId, String playerName, int score) {
+    }
+
+    public MatchResult {
+        members = List.copyOf(members);
+    }
+
+    public long durationMillis() {
+        return endedAtMillis - startedAtMillis;
+    }
+}
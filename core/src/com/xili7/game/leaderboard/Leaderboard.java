@@ -0,0 +1,328 @@
+package com.xili7.game.leaderboard;
+
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Best verified score of every named player, ranked.
+ *
+ * Ranks come from a Fenwick tree over scores ({@link ScoreCounts}), so a
+ * submission, a player's rank and each row of a top-N page cost
+ * O(log maxScore) whatever the number of players. Players level on score
+ * share a rank and are listed in the order they reached it.
+ *
+ * With a file, every new personal best is appended to it as a record
+ * <pre>
+ *   int32   payload length
+ *   payload:
+ *     int32   score
+ *     UTF-8   player name
+ *   int32   CRC32C of the payload
+ * </pre>
+ * after {@link #MAGIC}, and replayed on open; a record torn by a crash is
+ * cut off. Submissions that do not beat the player's best touch nothing on
+ * disk. Once the log holds twice as many records as there are players it is
+ * compacted: the current standings are written to a temporary file, forced
+ * and moved over the log.
+ *
+ * Reported through the registry: {@code leaderboard_submissions},
+ * {@code leaderboard_improvements}, {@code leaderboard_compactions} and the
+ * gauge {@code leaderboard_players}. Thread-safe.
+ */
+public final class Leaderboard implements AutoCloseable {
+    public static final int MAGIC = 0x46424C31; // "FBL1"
+    /** Far beyond any run the verifier lets through; bounds the tree. */
+    public static final int MAX_SCORE = 1 << 20;
+    public static final int MAX_NAME_LENGTH = 16;
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1," + MAX_NAME_LENGTH + "}");
+    private static final int INITIAL_SCORES = 1024;
+    private static final int COMPACT_MIN_RECORDS = 4096;
+    private static final int RECORD_BYTES = 3 * Integer.BYTES + MAX_NAME_LENGTH;
+
+    /**
+     * A player's place; {@code rank} starts at 1.
+     */
+    public record Standing(int rank, String player, int score) {
+    }
+
+    private final Path file;
+    private final Map<String, Integer> best = new HashMap<>();
+    private final Map<Integer, Set<String>> holders = new HashMap<>();
+    private final ScoreCounts counts = new ScoreCounts(INITIAL_SCORES);
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private int logRecords;
+    // After a failed compaction, the log length at which to try again.
+    private int compactRetryRecords;
+
+    private final Counter submissions;
+    private final Counter improvements;
+    private final Counter compactions;
+
+    /**
+     * Opens the leaderboard kept in {@code file}, creating the file and its
+     * directory if needed.
+     *
+     * @param file where standings are kept, or {@code null} to keep them in memory only
+     */
+    public Leaderboard(Path file, MetricsRegistry registry) throws IOException {
+        this.file = file;
+        submissions = registry.counter("leaderboard_submissions");
+        improvements = registry.counter("leaderboard_improvements");
+        compactions = registry.counter("leaderboard_compactions");
+        registry.gauge("leaderboard_players", this::size);
+        if (file != null) {
+            open();
+        }
+    }
+
+    /**
+     * Whether {@code name} can appear on the leaderboard: 1 to
+     * {@link #MAX_NAME_LENGTH} letters, digits, '_' or '-'.
+     */
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    /**
+     * Records a verified score for {@code player}.
+     *
+     * @return true if it is a new personal best
+     * @throws IllegalArgumentException if the name is not valid or the
+     *         score out of range
+     * @throws IOException if the log could not be written; the standings are
+     *         then unchanged
+     */
+    public synchronized boolean submit(String player, int score) throws IOException {
+        if (!isValidName(player)) {
+            throw new IllegalArgumentException("Invalid player name " + player);
+        }
+        if (score < 0 || score > MAX_SCORE) {
+            throw new IllegalArgumentException("Score out of range: " + score);
+        }
+        submissions.increment();
+        Integer previous = best.get(player);
+        if (previous != null && score <= previous) {
+            return false;
+        }
+        if (channel != null) {
+            append(player, score);
+            logRecords++;
+        }
+        place(player, score, previous);
+        improvements.increment();
+        if (channel != null && logRecords >= Math.max(COMPACT_MIN_RECORDS, compactRetryRecords)
+            && logRecords > 2 * best.size()) {
+            try {
+                compact();
+            } catch (IOException e) {
+                // The score is logged and placed; the uncompacted log still holds it.
+                compactRetryRecords = 2 * logRecords;
+                System.err.println("Could not compact leaderboard " + file + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The best {@code limit} players, highest score first.
+     */
+    public synchronized List<Standing> top(int limit) {
+        List<Standing> standings = new ArrayList<>(Math.max(0, Math.min(limit, best.size())));
+        int score = counts.highestBelow(MAX_SCORE + 1);
+        while (score >= 0 && standings.size() < limit) {
+            int rank = counts.above(score) + 1;
+            for (String player : holders.get(score)) {
+                if (standings.size() == limit) {
+                    break;
+                }
+                standings.add(new Standing(rank, player, score));
+            }
+            score = counts.highestBelow(score);
+        }
+        return standings;
+    }
+
+    /**
+     * Where {@code player} stands, or {@code null} if they have no score yet.
+     */
+    public synchronized Standing standing(String player) {
+        Integer score = best.get(player);
+        return score == null ? null : new Standing(counts.above(score) + 1, player, score);
+    }
+
+    /**
+     * Players with a score.
+     */
+    public synchronized int size() {
+        return best.size();
+    }
+
+    /**
+     * Rewrites the log as one record per player.
+     */
+    public synchronized void compact() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        // Best first keeps players level on score in the order they reached it.
+        List<Standing> standings = top(best.size());
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC);
+            for (Standing standing : standings) {
+                if (buffer.remaining() < RECORD_BYTES) {
+                    writeFully(out, buffer.flip());
+                    buffer.clear();
+                }
+                encode(buffer, standing.player(), standing.score());
+            }
+            writeFully(out, buffer.flip());
+            out.force(true);
+        }
+        channel.close();
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logRecords = standings.size();
+            compactions.increment();
+        } finally {
+            // The compacted log, or the old one if it could not be replaced.
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close leaderboard " + file + ": " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        long validLength = 0L;
+        if (Files.exists(file) && Files.size(file) >= Integer.BYTES) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (in.getInt() != MAGIC) {
+                throw new IOException("Not a leaderboard file: " + file);
+            }
+            while (load(in)) {
+                logRecords++;
+            }
+            validLength = in.position();
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (validLength == 0L) {
+                channel.truncate(0L);
+                writeFully(channel, ByteBuffer.allocate(Integer.BYTES).putInt(0, MAGIC));
+            } else {
+                channel.truncate(validLength);
+                channel.position(validLength);
+            }
+        } catch (IOException e) {
+            channel.close();
+            channel = null;
+            throw e;
+        }
+    }
+
+    // Applies the record at the position of in and moves past it; false at a torn tail.
+    private boolean load(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < 3 * Integer.BYTES) {
+            return false;
+        }
+        int length = in.getInt(start);
+        if (length < Integer.BYTES || length > RECORD_BYTES || in.remaining() - 2 * Integer.BYTES < length) {
+            return false;
+        }
+        int payloadStart = start + Integer.BYTES;
+        if (in.getInt(payloadStart + length) != checksum(in, payloadStart, length)) {
+            return false;
+        }
+        int score = in.getInt(payloadStart);
+        byte[] name = new byte[length - Integer.BYTES];
+        in.get(payloadStart + Integer.BYTES, name);
+        String player = new String(name, StandardCharsets.UTF_8);
+        Integer previous = best.get(player);
+        if (previous == null || score > previous) {
+            place(player, score, previous);
+        }
+        in.position(payloadStart + length + Integer.BYTES);
+        return true;
+    }
+
+    private void place(String player, int score, Integer previous) {
+        if (previous != null) {
+            counts.add(previous, -1);
+            Set<String> level = holders.get(previous);
+            level.remove(player);
+            if (level.isEmpty()) {
+                holders.remove(previous);
+            }
+        }
+        best.put(player, score);
+        counts.add(score, 1);
+        holders.computeIfAbsent(score, s -> new LinkedHashSet<>()).add(player);
+    }
+
+    private void append(String player, int score) throws IOException {
+        record.clear();
+        encode(record, player, score);
+        writeFully(channel, record.flip());
+    }
+
+    private void encode(ByteBuffer out, String player, int score) {
+        byte[] name = player.getBytes(StandardCharsets.UTF_8);
+        int start = out.position();
+        out.putInt(Integer.BYTES + name.length);
+        out.putInt(score);
+        out.put(name);
+        out.putInt(checksum(out, start + Integer.BYTES, Integer.BYTES + name.length));
+    }
+
+    private int checksum(ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+        crc.update(buffer.duplicate().position(offset).limit(offset + length));
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.xili7.game.leaderboard;
+
+import java.util.Arrays;
+
+/**
+ * How many players hold each best score, kept as a Fenwick tree indexed by
+ * score: moving a player between scores, counting the players at or below
+ * a score and finding the next score held below another are each
+ * O(log maxScore), however many players there are.
+ *
+ * The range doubles when a higher score arrives. Not thread-safe;
+ * {@link Leaderboard} guards it.
+ */
+final class ScoreCounts {
+    // tree[i] sums the counts of scores [i - lowbit(i), i - 1]; tree[0] is unused.
+    private int[] tree;
+    private int total;
+
+    /**
+     * @param initialScores scores the tree covers before it has to grow
+     */
+    ScoreCounts(int initialScores) {
+        tree = new int[Math.max(2, Integer.highestOneBit(Math.max(1, initialScores - 1)) << 1) + 1];
+    }
+
+    /**
+     * Players counted.
+     */
+    int total() {
+        return total;
+    }
+
+    void add(int score, int delta) {
+        if (score < 0) {
+            throw new IllegalArgumentException("Negative score " + score);
+        }
+        while (score >= tree.length - 1) {
+            grow();
+        }
+        for (int i = score + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+        total += delta;
+    }
+
+    /**
+     * Players with a score of at most {@code score}.
+     */
+    int atMost(int score) {
+        int sum = 0;
+        for (int i = Math.min(score + 1, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Players with a score above {@code score}; a player's rank is this plus one.
+     */
+    int above(int score) {
+        return total - atMost(score);
+    }
+
+    /**
+     * The highest score below {@code score} held by any player, or -1 if none is.
+     */
+    int highestBelow(int score) {
+        int below = score <= 0 ? 0 : atMost(score - 1);
+        if (below == 0) {
+            return -1;
+        }
+        // Descend to the last index whose prefix still holds fewer than all of them.
+        int index = 0;
+        for (int step = Integer.highestOneBit(tree.length - 1); step > 0; step >>= 1) {
+            int next = index + step;
+            if (next < tree.length && tree[next] < below) {
+                index = next;
+                below -= tree[next];
+            }
+        }
+        return index;
+    }
+
+    // Nodes of the old range keep their sums; in the new upper half only the
+    // root covers anything yet, and that is every player.
+    private void grow() {
+        int size = tree.length - 1;
+        tree = Arrays.copyOf(tree, (size << 1) + 1);
+        tree[size << 1] = total;
+    }
+}
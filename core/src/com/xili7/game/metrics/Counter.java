@@ -0,0 +1,26 @@
+package com.xili7.game.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic lock-free counter backed by a {@link LongAdder}.
+ */
+public final class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void add(long delta) {
+        adder.add(delta);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+
+    public long getAndReset() {
+        return adder.sumThenReset();
+    }
+}
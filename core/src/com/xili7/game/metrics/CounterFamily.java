@@ -0,0 +1,82 @@
+package com.xili7.game.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counters sharing a name and split by one label (e.g. messages per command).
+ *
+ * {@link #forLine(String)} resolves the counter of a raw protocol line by
+ * matching its command prefix against the labels already seen, so the hot
+ * path neither parses nor allocates once every command has been observed.
+ * Label values are capped so garbage input cannot grow the family forever.
+ */
+public final class CounterFamily {
+    public static final String OVERFLOW_LABEL = "OTHER";
+    private static final int MAX_LABELS = 64;
+
+    private record Entry(String label, Counter counter) {
+    }
+
+    private final String name;
+    private final String labelName;
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    private volatile Entry[] entries = new Entry[0];
+
+    CounterFamily(String name, String labelName) {
+        this.name = name;
+        this.labelName = labelName;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String labelName() {
+        return labelName;
+    }
+
+    public Counter get(String labelValue) {
+        Counter counter = counters.get(labelValue);
+        return counter != null ? counter : register(labelValue);
+    }
+
+    /**
+     * Returns the counter for the command of a "COMMAND|arg|..." line.
+     */
+    public Counter forLine(String line) {
+        for (Entry entry : entries) {
+            String label = entry.label();
+            int length = label.length();
+            if (line.startsWith(label) && (line.length() == length || line.charAt(length) == '|')) {
+                return entry.counter();
+            }
+        }
+
+        int end = line.indexOf('|');
+        return get(end < 0 ? line : line.substring(0, end));
+    }
+
+    Map<String, Counter> counters() {
+        return counters;
+    }
+
+    private synchronized Counter register(String labelValue) {
+        Counter existing = counters.get(labelValue);
+        if (existing != null) {
+            return existing;
+        }
+        if (counters.size() >= MAX_LABELS) {
+            return counters.computeIfAbsent(OVERFLOW_LABEL, ignored -> new Counter());
+        }
+
+        Counter counter = new Counter();
+        counters.put(labelValue, counter);
+        Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+        grown[grown.length - 1] = new Entry(labelValue, counter);
+        entries = grown;
+        return counter;
+    }
+}
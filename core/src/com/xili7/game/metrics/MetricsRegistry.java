@@ -0,0 +1,98 @@
+package com.xili7.game.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process metrics registry.
+ *
+ * Metrics are created once (usually at server construction) and recorded
+ * lock-free afterwards. Exporters read everything through {@link #snapshot(boolean)},
+ * optionally resetting counters and histograms so each read covers one interval.
+ */
+public final class MetricsRegistry {
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, CounterFamily> families = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Single counter value. {@code labelName} is null for unlabelled counters.
+     */
+    public record CounterSample(String name, String labelName, String labelValue, long value) {
+    }
+
+    public record GaugeSample(String name, long value) {
+    }
+
+    public record HistogramSample(String name, Histogram.Snapshot snapshot) {
+    }
+
+    public record Snapshot(long timestampMillis,
+                           List<CounterSample> counters,
+                           List<GaugeSample> gauges,
+                           List<HistogramSample> histograms) {
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, ignored -> new Counter());
+    }
+
+    public CounterFamily counterFamily(String name, String labelName) {
+        return families.computeIfAbsent(name, ignored -> new CounterFamily(name, labelName));
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, ignored -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge sampled only when a snapshot is taken.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * Reads every metric. With {@code reset} counters and histograms restart
+     * from zero, which is what interval based exporters expect; gauges are
+     * never reset.
+     */
+    public Snapshot snapshot(boolean reset) {
+        List<CounterSample> counterSamples = new ArrayList<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            Counter counter = entry.getValue();
+            counterSamples.add(new CounterSample(entry.getKey(), null, null, reset ? counter.getAndReset() : counter.get()));
+        }
+        for (CounterFamily family : families.values()) {
+            for (Map.Entry<String, Counter> entry : family.counters().entrySet()) {
+                Counter counter = entry.getValue();
+                counterSamples.add(new CounterSample(
+                    family.name(),
+                    family.labelName(),
+                    entry.getKey(),
+                    reset ? counter.getAndReset() : counter.get()
+                ));
+            }
+        }
+
+        List<GaugeSample> gaugeSamples = new ArrayList<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            gaugeSamples.add(new GaugeSample(entry.getKey(), entry.getValue().getAsLong()));
+        }
+
+        List<HistogramSample> histogramSamples = new ArrayList<>();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            histogramSamples.add(new HistogramSample(
+                entry.getKey(),
+                reset ? histogram.snapshotAndReset() : histogram.snapshot()
+            ));
+        }
+
+        return new Snapshot(System.currentTimeMillis(), counterSamples, gaugeSamples, histogramSamples);
+    }
+}
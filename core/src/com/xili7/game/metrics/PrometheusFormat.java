@@ -0,0 +1,79 @@
+package com.xili7.game.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a {@link MetricsRegistry.Snapshot} in the Prometheus text exposition format.
+ *
+ * Counters become "_total" counters, gauges stay gauges and histograms are
+ * exported as summaries (fixed quantiles plus _sum/_count) with an extra
+ * "_max" gauge.
+ */
+public final class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private PrometheusFormat() {
+    }
+
+    public static String render(MetricsRegistry.Snapshot snapshot, String prefix) {
+        StringBuilder out = new StringBuilder(4096);
+
+        Map<String, List<MetricsRegistry.CounterSample>> counters = new LinkedHashMap<>();
+        for (MetricsRegistry.CounterSample sample : snapshot.counters()) {
+            counters.computeIfAbsent(sample.name(), ignored -> new ArrayList<>()).add(sample);
+        }
+        for (Map.Entry<String, List<MetricsRegistry.CounterSample>> entry : counters.entrySet()) {
+            String name = prefix + entry.getKey() + "_total";
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (MetricsRegistry.CounterSample sample : entry.getValue()) {
+                out.append(name);
+                if (sample.labelName() != null) {
+                    appendLabel(out, sample.labelName(), sample.labelValue());
+                }
+                out.append(' ').append(sample.value()).append('\n');
+            }
+        }
+
+        for (MetricsRegistry.GaugeSample sample : snapshot.gauges()) {
+            String name = prefix + sample.name();
+            out.append("# TYPE ").append(name).append(" gauge\n");
+            out.append(name).append(' ').append(sample.value()).append('\n');
+        }
+
+        for (MetricsRegistry.HistogramSample sample : snapshot.histograms()) {
+            String name = prefix + sample.name();
+            Histogram.Snapshot histogram = sample.snapshot();
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                out.append(name);
+                appendLabel(out, "quantile", Double.toString(quantile));
+                out.append(' ').append(histogram.percentile(quantile)).append('\n');
+            }
+            out.append(name).append("_sum ").append(histogram.sum()).append('\n');
+            out.append(name).append("_count ").append(histogram.count()).append('\n');
+            out.append("# TYPE ").append(name).append("_max gauge\n");
+            out.append(name).append("_max ").append(histogram.max()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void appendLabel(StringBuilder out, String labelName, String labelValue) {
+        out.append('{').append(labelName).append("=\"");
+        for (int i = 0; i < labelValue.length(); i++) {
+            char c = labelValue.charAt(i);
+            switch (c) {
+                case '\\' -> out.append("\\\\");
+                case '"' -> out.append("\\\"");
+                case '\n' -> out.append("\\n");
+                default -> out.append(c);
+            }
+        }
+        out.append("\"}");
+    }
+}
@@ -0,0 +1,99 @@
+package com.xili7.game.metrics;
+
+/**
+ * Standard metric set shared by the game servers.
+ *
+ * Durations are recorded in nanoseconds, sizes in bytes: a line costs its
+ * UTF-8 length plus the newline ({@link #lineBytes}).
+ */
+public final class ServerMetrics {
+    private final MetricsRegistry registry;
+
+    public final CounterFamily messagesIn;
+    public final CounterFamily messagesOut;
+    public final Counter bytesIn;
+    public final Counter bytesOut;
+    public final Counter sendFailures;
+    public final Counter outboundOverflows;
+    public final Counter connectionsOpened;
+    public final Counter connectionsClosed;
+    public final Counter ingressDropped;
+    public final Counter ingressCollapsed;
+    public final Histogram parseNanos;
+    public final Histogram broadcastNanos;
+    public final Histogram tickNanos;
+    public final Histogram tickJitterNanos;
+
+    private long lastTickStartNanos;
+
+    public ServerMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        this.messagesIn = registry.counterFamily("messages_in", "command");
+        this.messagesOut = registry.counterFamily("messages_out", "command");
+        this.bytesIn = registry.counter("bytes_in");
+        this.bytesOut = registry.counter("bytes_out");
+        this.sendFailures = registry.counter("send_failures");
+        this.outboundOverflows = registry.counter("outbound_overflows");
+        this.connectionsOpened = registry.counter("connections_opened");
+        this.connectionsClosed = registry.counter("connections_closed");
+        this.ingressDropped = registry.counter("ingress_dropped");
+        this.ingressCollapsed = registry.counter("ingress_collapsed");
+        this.parseNanos = registry.histogram("parse_nanos");
+        this.broadcastNanos = registry.histogram("broadcast_fanout_nanos");
+        this.tickNanos = registry.histogram("tick_nanos");
+        this.tickJitterNanos = registry.histogram("tick_jitter_nanos");
+    }
+
+    public MetricsRegistry registry() {
+        return registry;
+    }
+
+    public void recordIn(String line) {
+        messagesIn.forLine(line).increment();
+        bytesIn.add(lineBytes(line));
+    }
+
+    /**
+     * @param bytes the line's {@link #lineBytes}, which the sender already has
+     */
+    public void recordOut(String line, int bytes) {
+        messagesOut.forLine(line).increment();
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Bytes a line takes on the wire: its UTF-8 encoding plus the newline.
+     */
+    public static int lineBytes(String line) {
+        int bytes = 1;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < line.length()
+                && Character.isLowSurrogate(line.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                // A lone surrogate is encoded as the one-byte replacement '?'.
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Marks the start of a scheduled tick and records how far it drifted
+     * from the expected period. Must be called from the single tick thread.
+     */
+    public long tickStarted(long expectedPeriodNanos) {
+        long now = System.nanoTime();
+        if (lastTickStartNanos != 0L) {
+            tickJitterNanos.record(Math.abs((now - lastTickStartNanos) - expectedPeriodNanos));
+        }
+        lastTickStartNanos = now;
+        return now;
+    }
+}
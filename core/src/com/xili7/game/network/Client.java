@@ -2,16 +2,11 @@ package com.xili7.game.network;
 
 import com.xili7.game.network.MessageParser.ParsedMessage;
 import com.xili7.game.network.MessageParser.PlayerSnapshot;
+import com.xili7.game.transport.Connection;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Plain Java TCP client for LibGDX multiplayer.
@@ -37,10 +32,7 @@ public class Client {
     private final int port;
     private final Listener listener;
 
-    private Socket socket;
-    private PrintWriter writer;
-    private BufferedReader reader;
-    private ExecutorService readExecutor;
+    private Connection<ParsedMessage> connection;
 
     private volatile boolean connected;
     private volatile String localPlayerId;
@@ -56,29 +48,34 @@ public class Client {
             return;
         }
 
-        socket = new Socket(host, port);
+        Socket socket = new Socket(host, port);
         socket.setTcpNoDelay(true);
-        writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        connection = new Connection<>("client", socket, MessageParser.CODEC, Connection.Options.client());
 
         connected = true;
-        readExecutor = Executors.newSingleThreadExecutor();
-        readExecutor.submit(this::readLoop);
+        connection.start(new Connection.Listener<>() {
+            @Override
+            public void onMessage(ParsedMessage message) {
+                handleMessage(message);
+            }
+
+            @Override
+            public void onClosed(Throwable cause) {
+                if (cause != null && connected) {
+                    listener.onError(cause instanceof Exception exception ? exception : new IOException(cause));
+                }
+                if (connected) {
+                    disconnect();
+                }
+            }
+        });
     }
 
     public void disconnect() {
         connected = false;
 
-        if (readExecutor != null) {
-            readExecutor.shutdownNow();
-        }
-
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch (IOException ignored) {
-                // Ignore close errors.
-            }
+        if (connection != null) {
+            connection.closeNow();
         }
 
         listener.onDisconnected();
@@ -102,32 +99,12 @@ public class Client {
         }
 
         String payload = MessageParser.serializeInput(localPlayerId, x, y, movementState);
-        writer.println(payload);
-        if (writer.checkError()) {
+        if (!connection.send(payload)) {
             disconnect();
         }
     }
 
-    private void readLoop() {
-        try {
-            String line;
-            while (connected && (line = reader.readLine()) != null) {
-                handleMessage(line);
-            }
-        } catch (Exception e) {
-            if (connected) {
-                listener.onError(e);
-            }
-        } finally {
-            if (connected) {
-                disconnect();
-            }
-        }
-    }
-
-    private void handleMessage(String rawLine) {
-        ParsedMessage message = MessageParser.parse(rawLine);
-
+    private void handleMessage(ParsedMessage message) {
         switch (message.command()) {
             case "WELCOME" -> {
                 if (message.paramCount() >= 1) {
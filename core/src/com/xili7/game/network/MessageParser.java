@@ -1,5 +1,7 @@
 package com.xili7.game.network;
 
+import com.xili7.game.transport.LineCodec;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -17,6 +19,21 @@ import java.util.StringJoiner;
 public final class MessageParser {
     public static final String DELIMITER = "|";
 
+    /**
+     * Codec used by the shared transport to decode incoming lines.
+     */
+    public static final LineCodec<ParsedMessage> CODEC = new LineCodec<>() {
+        @Override
+        public ParsedMessage decode(String line) {
+            return parse(line);
+        }
+
+        @Override
+        public String command(ParsedMessage message) {
+            return message.command();
+        }
+    };
+
     private MessageParser() {
     }
 
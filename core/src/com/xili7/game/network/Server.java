@@ -1,17 +1,16 @@
 package com.xili7.game.network;
 
+import com.xili7.game.diagnostics.FlightEvents;
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.MetricsRegistry;
+import com.xili7.game.metrics.ServerMetrics;
 import com.xili7.game.network.MessageParser.ParsedMessage;
 import com.xili7.game.network.MessageParser.PlayerSnapshot;
+import com.xili7.game.transport.Connection;
+import com.xili7.game.transport.IngressLimiter;
+import com.xili7.game.transport.TransportServer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -24,25 +23,50 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Responsibilities:
  * - Accept multiple clients.
  * - Receive INPUT updates from each client.
- * - Keep a global player-state map.
- * - Broadcast STATE snapshots to all connected clients at fixed intervals.
+ * - Keep a global player-state map with a cached, pre-encoded STATE line.
+ * - Broadcast STATE snapshots to all connected clients when they change,
+ *   at most {@code tickRate} times per second. The rate backs off under load
+ *   (see {@link TickRateController}); unchanged state is re-sent once per second.
  */
 public class Server {
+    private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final int port;
-    private final int tickRate;
+    private final Connection.Options connectionOptions;
+    private final TickRateController tickRate;
 
     private final AtomicInteger idSequence = new AtomicInteger(1);
-    private final Map<String, PlayerSnapshot> playerStates = new ConcurrentHashMap<>();
+    private final StateSnapshotCache playerStates = new StateSnapshotCache();
     private final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private final ServerMetrics metrics = new ServerMetrics(metricsRegistry);
+    private final Counter skippedTicks = metricsRegistry.counter("ticks_skipped_unchanged");
 
     private volatile boolean running;
-    private ServerSocket serverSocket;
-    private Thread acceptThread;
+    private TransportServer<ParsedMessage> transport;
     private ScheduledExecutorService broadcaster;
 
+    // Broadcast thread only.
+    private long nextTickNanos;
+    private long broadcastVersion = -1L;
+    private long lastBroadcastNanos;
+
     public Server(int port, int tickRate) {
+        this(port, tickRate, IngressLimiter.Policy.fromSystemProperties(IngressLimiter.Policy.defaults()));
+    }
+
+    public Server(int port, int tickRate, IngressLimiter.Policy ingressPolicy) {
         this.port = port;
-        this.tickRate = tickRate;
+        this.tickRate = new TickRateController(tickRate / 4, tickRate);
+        this.connectionOptions = Connection.Options.server(ingressPolicy, metrics);
+
+        metricsRegistry.gauge("connections", clients::size);
+        metricsRegistry.gauge("players", playerStates::size);
+        metricsRegistry.gauge("tick_rate", this.tickRate::rate);
+    }
+
+    public MetricsRegistry metrics() {
+        return metricsRegistry;
     }
 
     public void start() throws IOException {
@@ -51,14 +75,19 @@ public class Server {
         }
 
         running = true;
-        serverSocket = new ServerSocket(port);
+        transport = new TransportServer<>(
+            "server",
+            port,
+            MessageParser.CODEC,
+            connectionOptions,
+            () -> "P" + idSequence.getAndIncrement(),
+            this::accept
+        );
+        transport.start();
 
         broadcaster = Executors.newSingleThreadScheduledExecutor();
-        long frameMillis = Math.max(1L, 1000L / Math.max(1, tickRate));
-        broadcaster.scheduleAtFixedRate(this::broadcastState, frameMillis, frameMillis, TimeUnit.MILLISECONDS);
-
-        acceptThread = new Thread(this::acceptLoop, "server-accept-loop");
-        acceptThread.start();
+        nextTickNanos = System.nanoTime() + tickRate.periodNanos();
+        broadcaster.schedule(this::tick, tickRate.periodNanos(), TimeUnit.NANOSECONDS);
 
         System.out.println("Server listening on port " + port);
     }
@@ -70,70 +99,95 @@ public class Server {
             broadcaster.shutdownNow();
         }
 
-        for (ClientHandler client : clients) {
-            client.close();
+        if (transport != null) {
+            transport.stop();
         }
         clients.clear();
-
-        if (serverSocket != null && !serverSocket.isClosed()) {
-            try {
-                serverSocket.close();
-            } catch (IOException ignored) {
-                // Ignore errors while shutting down.
-            }
-        }
+        playerStates.clear();
 
         System.out.println("Server stopped.");
     }
 
-    private void acceptLoop() {
-        while (running) {
-            try {
-                Socket socket = serverSocket.accept();
-                socket.setTcpNoDelay(true);
+    private Connection.Listener<ParsedMessage> accept(Connection<ParsedMessage> connection) {
+        ClientHandler client = new ClientHandler(connection);
+        clients.add(client);
 
-                String playerId = "P" + idSequence.getAndIncrement();
-                ClientHandler client = new ClientHandler(playerId, socket);
-                clients.add(client);
+        // Send assigned player ID to new client.
+        client.send(MessageParser.serialize("WELCOME", client.playerId));
 
-                // Send assigned player ID to new client.
-                client.send(MessageParser.serialize("WELCOME", playerId));
+        // Spawn default state so all clients can render the new player immediately.
+        playerStates.put(new PlayerSnapshot(client.playerId, 0f, 0f, "IDLE"));
 
-                // Spawn default state so all clients can render the new player immediately.
-                playerStates.put(playerId, new PlayerSnapshot(playerId, 0f, 0f, "IDLE"));
+        System.out.println("Client connected: " + client.playerId + " from " + connection.remoteAddress());
+        return client;
+    }
 
-                Thread t = new Thread(client, "client-handler-" + playerId);
-                t.start();
+    /**
+     * Runs one broadcast and schedules the next one at the (possibly adapted) rate.
+     */
+    private void tick() {
+        if (!running) {
+            return;
+        }
 
-                System.out.println("Client connected: " + playerId + " from " + socket.getRemoteSocketAddress());
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Accept loop error: " + e.getMessage());
-                }
-            }
+        long periodNanos = tickRate.periodNanos();
+        long started = System.nanoTime();
+        try {
+            broadcastState(periodNanos);
+        } catch (RuntimeException e) {
+            System.err.println("Broadcast error: " + e.getMessage());
+        }
+        long finished = System.nanoTime();
+        tickRate.onTick(finished - started, Math.max(0L, started - nextTickNanos));
+
+        // Keep a fixed cadence, but never try to catch up on missed ticks.
+        nextTickNanos = Math.max(nextTickNanos + tickRate.periodNanos(), finished);
+        if (running) {
+            broadcaster.schedule(this::tick, nextTickNanos - finished, TimeUnit.NANOSECONDS);
         }
     }
 
-    private void broadcastState() {
-        if (!running) {
+    private void broadcastState(long periodNanos) {
+        long tickStart = metrics.tickStarted(periodNanos);
+        long version = playerStates.version();
+        if (version == broadcastVersion && tickStart - lastBroadcastNanos < KEEPALIVE_NANOS) {
+            skippedTicks.increment();
             return;
         }
 
-        String payload = MessageParser.serializeState(playerStates);
+        FlightEvents.RoomTick tickEvent = new FlightEvents.RoomTick();
+        tickEvent.begin();
+        String payload = playerStates.encode();
+        broadcastVersion = version;
+        lastBroadcastNanos = tickStart;
+
+        FlightEvents.SnapshotBroadcast broadcastEvent = new FlightEvents.SnapshotBroadcast();
+        broadcastEvent.begin();
+        long fanOutStart = System.nanoTime();
+        int receivers = 0;
         for (ClientHandler client : clients) {
             client.send(payload);
+            receivers++;
+        }
+        metrics.broadcastNanos.recordSince(fanOutStart);
+        broadcastEvent.end();
+        if (broadcastEvent.shouldCommit()) {
+            broadcastEvent.roomId = "*";
+            broadcastEvent.members = receivers;
+            broadcastEvent.bytes = (long) ServerMetrics.lineBytes(payload) * receivers;
+            broadcastEvent.commit();
         }
-    }
 
-    private void handleClientMessage(String senderId, String rawLine) {
-        ParsedMessage message;
-        try {
-            message = MessageParser.parse(rawLine);
-        } catch (RuntimeException parseError) {
-            System.err.println("Invalid message from " + senderId + ": " + rawLine);
-            return;
+        metrics.tickNanos.recordSince(tickStart);
+        tickEvent.end();
+        if (tickEvent.shouldCommit()) {
+            tickEvent.rooms = 1;
+            tickEvent.players = playerStates.size();
+            tickEvent.commit();
         }
+    }
 
+    private void handleClientMessage(String senderId, ParsedMessage message) {
         if ("INPUT".equals(message.command())) {
             // Expected format: INPUT|playerId|x|y|movementState
             if (message.paramCount() < 4) {
@@ -150,7 +204,7 @@ public class Server {
                 float x = Float.parseFloat(message.param(1));
                 float y = Float.parseFloat(message.param(2));
                 String state = message.param(3);
-                playerStates.put(senderId, new PlayerSnapshot(senderId, x, y, state));
+                playerStates.put(new PlayerSnapshot(senderId, x, y, state));
             } catch (NumberFormatException ignored) {
                 // Ignore malformed numeric payloads.
             }
@@ -158,63 +212,49 @@ public class Server {
     }
 
     private void disconnect(ClientHandler handler) {
-        clients.remove(handler);
+        if (!clients.remove(handler)) {
+            return;
+        }
         playerStates.remove(handler.playerId);
-        handler.close();
+        handler.connection.close();
         System.out.println("Client disconnected: " + handler.playerId);
     }
 
-    private class ClientHandler implements Runnable {
+    private class ClientHandler implements Connection.Listener<ParsedMessage> {
         private final String playerId;
-        private final Socket socket;
-        private final BufferedReader reader;
-        private final PrintWriter writer;
+        private final Connection<ParsedMessage> connection;
 
-        private volatile boolean connected = true;
+        ClientHandler(Connection<ParsedMessage> connection) {
+            this.playerId = connection.id();
+            this.connection = connection;
+        }
 
-        ClientHandler(String playerId, Socket socket) throws IOException {
-            this.playerId = playerId;
-            this.socket = socket;
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            this.writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+        @Override
+        public void onMessage(ParsedMessage message) {
+            handleClientMessage(playerId, message);
         }
 
         @Override
-        public void run() {
-            try {
-                String line;
-                while (connected && (line = reader.readLine()) != null) {
-                    handleClientMessage(playerId, line);
-                }
-            } catch (IOException ignored) {
-                // Socket closed or disconnected.
-            } finally {
-                disconnect(this);
-            }
+        public void onDecodeError(String line, RuntimeException error) {
+            System.err.println("Invalid message from " + playerId + ": " + line);
         }
 
-        void send(String message) {
-            if (!connected) {
-                return;
-            }
-            writer.println(message);
-            if (writer.checkError()) {
-                disconnect(this);
+        @Override
+        public void onClosed(Throwable cause) {
+            if (cause instanceof IngressLimiter.FloodException) {
+                System.err.println("Disconnecting " + playerId + ": " + cause.getMessage());
             }
+            disconnect(this);
         }
 
-        void close() {
-            connected = false;
-            try {
-                socket.close();
-            } catch (IOException ignored) {
-                // Ignore errors during close.
-            }
+        void send(String message) {
+            connection.send(message);
         }
     }
 
     /**
      * Optional standalone entry point for local testing.
+     * Usage: Server [port] [maxTickRate]
      */
     public static void main(String[] args) throws Exception {
         int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
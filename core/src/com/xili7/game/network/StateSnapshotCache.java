@@ -0,0 +1,114 @@
+package com.xili7.game.network;
+
+import com.xili7.game.network.MessageParser.PlayerSnapshot;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Player states plus a versioned, pre-encoded STATE line.
+ *
+ * Writers ({@link #put}, {@link #remove}) bump the version only when a
+ * snapshot actually changes. {@link #encode()} reuses the previous line
+ * while the version is unchanged; otherwise it rebuilds it from per-player
+ * fragments, formatting floats only for the players that changed.
+ *
+ * Any thread may write; {@link #encode()} must only be called from the
+ * single broadcast thread.
+ */
+final class StateSnapshotCache {
+    private static final class Entry {
+        private final PlayerSnapshot snapshot;
+        // Written and read only by the encoding thread.
+        private String fragment;
+
+        private Entry(PlayerSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final StringBuilder builder = new StringBuilder(256);
+
+    private long encodedVersion = -1L;
+    private String encoded;
+
+    /**
+     * Stores a snapshot. Returns false (and keeps the cached line) when it
+     * equals the one already stored.
+     */
+    boolean put(PlayerSnapshot snapshot) {
+        Entry previous = entries.get(snapshot.playerId());
+        if (previous != null && sameState(previous.snapshot, snapshot)) {
+            return false;
+        }
+        entries.put(snapshot.playerId(), new Entry(snapshot));
+        version.incrementAndGet();
+        return true;
+    }
+
+    void remove(String playerId) {
+        if (entries.remove(playerId) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        version.incrementAndGet();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long version() {
+        return version.get();
+    }
+
+    /**
+     * Returns the STATE line for the current players, rebuilding it only if
+     * something changed since the last call.
+     */
+    String encode() {
+        long current = version.get();
+        if (current == encodedVersion) {
+            return encoded;
+        }
+
+        // Read the version before iterating: a write racing with the rebuild
+        // bumps it again, so the next call rebuilds rather than missing it.
+        builder.setLength(0);
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            String fragment = entry.fragment;
+            if (fragment == null) {
+                fragment = fragment(entry.snapshot);
+                entry.fragment = fragment;
+            }
+            builder.append(fragment);
+            count++;
+        }
+
+        String header = "STATE" + MessageParser.DELIMITER + count;
+        builder.insert(0, header);
+        encoded = builder.toString();
+        encodedVersion = current;
+        return encoded;
+    }
+
+    private static String fragment(PlayerSnapshot snapshot) {
+        return MessageParser.DELIMITER + snapshot.playerId()
+            + MessageParser.DELIMITER + snapshot.x()
+            + MessageParser.DELIMITER + snapshot.y()
+            + MessageParser.DELIMITER + snapshot.state();
+    }
+
+    private static boolean sameState(PlayerSnapshot a, PlayerSnapshot b) {
+        return Float.floatToIntBits(a.x()) == Float.floatToIntBits(b.x())
+            && Float.floatToIntBits(a.y()) == Float.floatToIntBits(b.y())
+            && a.state().equals(b.state());
+    }
+}
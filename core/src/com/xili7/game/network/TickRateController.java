@@ -0,0 +1,60 @@
+package com.xili7.game.network;
+
+/**
+ * Adapts the broadcast tick rate to server load.
+ *
+ * A tick counts as overloaded when its work takes more than half of the
+ * period, or when it starts more than half a period late (the scheduler
+ * thread is starved). Two overloaded ticks in a row halve the rate, down to
+ * {@code minRate} (a single GC pause does not count); each full second of
+ * healthy ticks raises it by one, up to {@code maxRate}.
+ *
+ * Updated only from the single broadcast thread; {@link #rate()} may be
+ * read from anywhere.
+ */
+final class TickRateController {
+    private static final double BUSY_FRACTION = 0.5;
+    private static final int OVERLOADED_TICKS = 2;
+
+    private final int minRate;
+    private final int maxRate;
+
+    private volatile int rate;
+    private int healthyTicks;
+    private int overloadedTicks;
+
+    TickRateController(int minRate, int maxRate) {
+        this.maxRate = Math.max(1, maxRate);
+        this.minRate = Math.max(1, Math.min(minRate, this.maxRate));
+        this.rate = this.maxRate;
+    }
+
+    int rate() {
+        return rate;
+    }
+
+    long periodNanos() {
+        return 1_000_000_000L / rate;
+    }
+
+    /**
+     * Records one finished tick and returns the rate for the next one.
+     */
+    int onTick(long workNanos, long lateNanos) {
+        long budget = (long) (periodNanos() * BUSY_FRACTION);
+        if (workNanos > budget || lateNanos > budget) {
+            healthyTicks = 0;
+            if (++overloadedTicks >= OVERLOADED_TICKS) {
+                overloadedTicks = 0;
+                rate = Math.max(minRate, rate / 2);
+            }
+        } else {
+            overloadedTicks = 0;
+            if (rate < maxRate && ++healthyTicks >= rate) {
+                healthyTicks = 0;
+                rate++;
+            }
+        }
+        return rate;
+    }
+}
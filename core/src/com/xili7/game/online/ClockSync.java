@@ -0,0 +1,69 @@
+package com.xili7.game.online;
+
+import java.util.Arrays;
+
+/**
+ * Client-side estimate of round-trip time and of the offset between the
+ * local monotonic clock and the server clock.
+ *
+ * Each PONG gives one sample: {@code offset = serverTime + rtt / 2 - receivedAt}.
+ * The offset is taken from the lowest-RTT sample of the last {@value #WINDOW},
+ * since queueing delay is what makes a sample asymmetric. The reported RTT
+ * is the window median, which ignores one-off spikes such as the first
+ * ping of a cold JVM.
+ */
+final class ClockSync {
+    private static final int WINDOW = 8;
+
+    private final long[] sampleRtts = new long[WINDOW];
+    private final long[] sampleOffsets = new long[WINDOW];
+    private final long[] sortedRtts = new long[WINDOW];
+    private int samples;
+    private int nextSample;
+
+    private volatile long offsetMillis;
+    private volatile long rttMillis = -1L;
+
+    synchronized void addSample(long sentLocalMillis, long serverMillis, long receivedLocalMillis) {
+        long rtt = receivedLocalMillis - sentLocalMillis;
+        if (rtt < 0L) {
+            return;
+        }
+
+        sampleRtts[nextSample] = rtt;
+        sampleOffsets[nextSample] = serverMillis + rtt / 2 - receivedLocalMillis;
+        nextSample = (nextSample + 1) % WINDOW;
+        samples = Math.min(samples + 1, WINDOW);
+
+        int best = 0;
+        for (int i = 1; i < samples; i++) {
+            if (sampleRtts[i] < sampleRtts[best]) {
+                best = i;
+            }
+        }
+        offsetMillis = sampleOffsets[best];
+
+        System.arraycopy(sampleRtts, 0, sortedRtts, 0, samples);
+        Arrays.sort(sortedRtts, 0, samples);
+        rttMillis = sortedRtts[samples / 2];
+    }
+
+    boolean isSynchronized() {
+        return rttMillis >= 0L;
+    }
+
+    /**
+     * Median round-trip time of the recent samples, or -1 before the first PONG.
+     */
+    long rttMillis() {
+        return rttMillis;
+    }
+
+    long toServerMillis(long localMillis) {
+        return localMillis + offsetMillis;
+    }
+
+    long toLocalMillis(long serverMillis) {
+        return serverMillis - offsetMillis;
+    }
+}
@@ -1,5 +1,9 @@
 package com.xili7.game.online;
 
+import com.xili7.game.leaderboard.Leaderboard.Standing;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.transport.LineCodec;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -14,6 +18,21 @@ import java.util.StringJoiner;
 public final class MessageParser {
     public static final String DELIMITER = "|";
 
+    /**
+     * Codec used by the shared transport to decode incoming lines.
+     */
+    public static final LineCodec<ParsedMessage> CODEC = new LineCodec<>() {
+        @Override
+        public ParsedMessage decode(String line) {
+            return parse(line);
+        }
+
+        @Override
+        public String command(ParsedMessage message) {
+            return message.command();
+        }
+    };
+
     private MessageParser() {
     }
 
@@ -30,6 +49,15 @@ public final class MessageParser {
     public record PlayerState(String playerId, float x, float y, int score) {
     }
 
+    public record RunSubmission(InputLog log, int claimedScore) {
+    }
+
+    /**
+     * The top of the leaderboard, out of {@code players} ranked in all.
+     */
+    public record LeaderboardPage(int players, List<Standing> standings) {
+    }
+
     public static ParsedMessage parse(String rawLine) {
         if (rawLine == null || rawLine.isBlank()) {
             throw new IllegalArgumentException("Cannot parse empty message");
@@ -57,6 +85,13 @@ public final class MessageParser {
         return serialize("JOIN");
     }
 
+    /**
+     * JOIN|playerName: the name verified runs are ranked under on the leaderboard.
+     */
+    public static String join(String playerName) {
+        return serialize("JOIN", playerName);
+    }
+
     public static String createRoom() {
         return serialize("CREATE_ROOM");
     }
@@ -73,14 +108,69 @@ public final class MessageParser {
         return serialize("ROOM_JOINED", roomId);
     }
 
-    public static String start() {
-        return serialize("START");
+    /**
+     * START|startAtServerMillis|courseSeed: both players begin the course
+     * generated from {@code courseSeed} at this server time.
+     */
+    public static String start(long startAtServerMillis, long courseSeed) {
+        return serialize("START", startAtServerMillis, courseSeed);
+    }
+
+    /**
+     * PING|originMillis, answered with {@link #pong}. Either side may send it.
+     */
+    public static String ping(long originMillis) {
+        return serialize("PING", originMillis);
+    }
+
+    /**
+     * PONG|originMillis|responderMillis: echoes the PING timestamp plus the responder's clock.
+     */
+    public static String pong(long originMillis, long responderMillis) {
+        return serialize("PONG", originMillis, responderMillis);
     }
 
     public static String welcome(String playerId) {
         return serialize("WELCOME", playerId);
     }
 
+    /**
+     * WELCOME|playerId|resumeToken: the token lets a new connection take the
+     * session over with {@link #resume} after the old one is lost.
+     */
+    public static String welcome(String playerId, String resumeToken) {
+        return serialize("WELCOME", playerId, resumeToken);
+    }
+
+    /**
+     * RESUME|resumeToken, sent first on a new connection to continue a session.
+     */
+    public static String resume(String resumeToken) {
+        return serialize("RESUME", resumeToken);
+    }
+
+    /**
+     * RESUMED|playerId|roomId (empty when not in a room): the session continues on this connection.
+     */
+    public static String resumed(String playerId, String roomId) {
+        return serialize("RESUMED", playerId, roomId);
+    }
+
+    /**
+     * RESUME_FAILED: the token is unknown or its grace window has passed, or
+     * the new connection already joined a room.
+     */
+    public static String resumeFailed() {
+        return serialize("RESUME_FAILED");
+    }
+
+    /**
+     * LEAVE: the player is going away on purpose, so the server need not hold the session.
+     */
+    public static String leave() {
+        return serialize("LEAVE");
+    }
+
     public static String jump(String playerId) {
         return serialize("JUMP", playerId);
     }
@@ -89,6 +179,160 @@ public final class MessageParser {
         return serialize("STATE", playerId, x, y, score);
     }
 
+    /**
+     * STATE|playerId|x|y|score|tick, where tick counts 5 ms course steps since the run began.
+     */
+    public static String state(String playerId, float x, float y, int score, long tick) {
+        return serialize("STATE", playerId, x, y, score, tick);
+    }
+
+    /**
+     * SUBMIT_RUN|seed|claimedScore|flaps, where flaps is the first flap tick
+     * followed by the gaps to each next one, comma separated (empty for a run
+     * without flaps).
+     */
+    public static String submitRun(InputLog log, int claimedScore) {
+        return run("SUBMIT_RUN", log, claimedScore);
+    }
+
+    public static RunSubmission parseSubmitRun(ParsedMessage message) {
+        if (!"SUBMIT_RUN".equals(message.command()) || message.size() < 3) {
+            throw new IllegalArgumentException("Invalid SUBMIT_RUN message: " + message);
+        }
+        return parseRun(message);
+    }
+
+    /**
+     * GET_GHOST: asks the server for its best verified run to race against.
+     */
+    public static String getGhost() {
+        return serialize("GET_GHOST");
+    }
+
+    /**
+     * GHOST|seed|score|flaps (flaps as in SUBMIT_RUN), the answer to
+     * GET_GHOST; {@code log} null gives a bare GHOST, meaning none yet.
+     */
+    public static String ghost(InputLog log, int score) {
+        return log == null ? serialize("GHOST") : run("GHOST", log, score);
+    }
+
+    /**
+     * @return the ghost run, or {@code null} if the server has none
+     */
+    public static RunSubmission parseGhost(ParsedMessage message) {
+        if (!"GHOST".equals(message.command())) {
+            throw new IllegalArgumentException("Invalid GHOST message: " + message);
+        }
+        return message.size() < 3 ? null : parseRun(message);
+    }
+
+    private static String run(String command, InputLog log, int score) {
+        StringBuilder flaps = new StringBuilder(log.size() * 4);
+        long previous = 0L;
+        for (int i = 0; i < log.size(); i++) {
+            if (i > 0) {
+                flaps.append(',');
+            }
+            long tick = log.flapTick(i);
+            flaps.append(tick - previous);
+            previous = tick;
+        }
+        return serialize(command, log.seed(), score, flaps);
+    }
+
+    private static RunSubmission parseRun(ParsedMessage message) {
+        String flaps = message.arg(2);
+        String[] gaps = flaps.isEmpty() ? new String[0] : flaps.split(",", -1);
+        long[] ticks = new long[gaps.length];
+        long tick = 0L;
+        for (int i = 0; i < gaps.length; i++) {
+            tick += Long.parseLong(gaps[i]);
+            ticks[i] = tick;
+        }
+        return new RunSubmission(InputLog.of(Long.parseLong(message.arg(0)), ticks), Integer.parseInt(message.arg(1)));
+    }
+
+    /**
+     * RUN_RESULT|outcome|verifiedScore, the server's answer to SUBMIT_RUN.
+     */
+    public static String runResult(String outcome, int verifiedScore) {
+        return serialize("RUN_RESULT", outcome, verifiedScore);
+    }
+
+    /**
+     * GET_LEADERBOARD|limit: asks for the best {@code limit} players.
+     */
+    public static String getLeaderboard(int limit) {
+        return serialize("GET_LEADERBOARD", limit);
+    }
+
+    /**
+     * LEADERBOARD|players|count|rank|name|score|..., the answer to
+     * GET_LEADERBOARD: {@code count} rows out of {@code players} ranked.
+     */
+    public static String leaderboard(int players, List<Standing> standings) {
+        StringJoiner joiner = new StringJoiner(DELIMITER);
+        joiner.add("LEADERBOARD");
+        joiner.add(Integer.toString(players));
+        joiner.add(Integer.toString(standings.size()));
+        for (Standing standing : standings) {
+            joiner.add(Integer.toString(standing.rank()));
+            joiner.add(standing.player());
+            joiner.add(Integer.toString(standing.score()));
+        }
+        return joiner.toString();
+    }
+
+    public static LeaderboardPage parseLeaderboard(ParsedMessage message) {
+        if (!"LEADERBOARD".equals(message.command()) || message.size() < 2) {
+            throw new IllegalArgumentException("Invalid LEADERBOARD message: " + message);
+        }
+
+        int count = Integer.parseInt(message.arg(1));
+        if (count < 0 || message.size() < 2 + (count * 3)) {
+            throw new IllegalArgumentException("Incomplete LEADERBOARD message: " + message);
+        }
+
+        List<Standing> standings = new ArrayList<>(count);
+        int cursor = 2;
+        for (int i = 0; i < count; i++) {
+            standings.add(new Standing(
+                Integer.parseInt(message.arg(cursor++)),
+                message.arg(cursor++),
+                Integer.parseInt(message.arg(cursor++))
+            ));
+        }
+        return new LeaderboardPage(Integer.parseInt(message.arg(0)), standings);
+    }
+
+    /**
+     * GET_RANK|playerName: asks where one player stands.
+     */
+    public static String getRank(String playerName) {
+        return serialize("GET_RANK", playerName);
+    }
+
+    /**
+     * RANK|playerName|rank|score, the answer to GET_RANK; rank 0 means the
+     * player has no verified score yet.
+     */
+    public static String rank(String playerName, Standing standing) {
+        return standing == null
+            ? serialize("RANK", playerName, 0, 0)
+            : serialize("RANK", playerName, standing.rank(), standing.score());
+    }
+
+    /**
+     * @return the player's standing, with rank 0 if they are not ranked
+     */
+    public static Standing parseRank(ParsedMessage message) {
+        if (!"RANK".equals(message.command()) || message.size() < 3) {
+            throw new IllegalArgumentException("Invalid RANK message: " + message);
+        }
+        return new Standing(Integer.parseInt(message.arg(1)), message.arg(0), Integer.parseInt(message.arg(2)));
+    }
+
     public static String left(String playerId) {
         return serialize("LEFT", playerId);
     }
@@ -106,6 +350,33 @@ public final class MessageParser {
         return joiner.toString();
     }
 
+    /**
+     * BULK_STATE for a client on a constrained link: the recipient's own
+     * entry is left out (clients render themselves locally) and coordinates
+     * are rounded to 0.1.
+     */
+    public static String bulkStateReduced(List<PlayerState> states, String recipientId) {
+        StringJoiner joiner = new StringJoiner(DELIMITER);
+        joiner.add("BULK_STATE");
+        int count = 0;
+        for (PlayerState state : states) {
+            if (!state.playerId().equals(recipientId)) {
+                count++;
+            }
+        }
+        joiner.add(Integer.toString(count));
+        for (PlayerState state : states) {
+            if (state.playerId().equals(recipientId)) {
+                continue;
+            }
+            joiner.add(state.playerId());
+            joiner.add(Float.toString(Math.round(state.x() * 10f) / 10f));
+            joiner.add(Float.toString(Math.round(state.y() * 10f) / 10f));
+            joiner.add(Integer.toString(state.score()));
+        }
+        return joiner.toString();
+    }
+
     public static PlayerState parseState(ParsedMessage message) {
         if (!"STATE".equals(message.command()) || message.size() < 4) {
             throw new IllegalArgumentException("Invalid STATE message: " + message);
@@ -118,6 +389,13 @@ public final class MessageParser {
         );
     }
 
+    /**
+     * Course tick of a STATE message, or -1 if the sender did not include one.
+     */
+    public static long parseStateTick(ParsedMessage message) {
+        return message.size() > 4 ? Long.parseLong(message.arg(4)) : -1L;
+    }
+
     public static List<PlayerState> parseBulkState(ParsedMessage message) {
         if (!"BULK_STATE".equals(message.command()) || message.size() < 1) {
             throw new IllegalArgumentException("Invalid BULK_STATE message: " + message);
@@ -0,0 +1,216 @@
+package com.xili7.game.online;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.xili7.game.history.MatchResult;
+import com.xili7.game.metrics.PrometheusFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optional admin HTTP endpoint for {@link OnlineServer}.
+ *
+ * Runs on its own port and its own small daemon executor, so scrapes never
+ * run on client or snapshot threads. Handlers only read concurrent
+ * collections, gauges and counters.
+ *
+ * Routes:
+ * - GET  /metrics      Prometheus text format
+ * - GET  /rooms        JSON list of rooms and members
+ * - GET  /connections  JSON list of connected players
+ * - GET  /matches      JSON list of the last matches played, newest first
+ * - POST /drain        stop accepting players, stop once rooms are empty
+ */
+public class OnlineAdminServer {
+    private static final String METRIC_PREFIX = "flappy_online_";
+
+    private final OnlineServer server;
+    private final InetSocketAddress address;
+
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    public OnlineAdminServer(OnlineServer server, InetSocketAddress address) {
+        this.server = server;
+        this.address = address;
+    }
+
+    public synchronized void start() throws IOException {
+        if (httpServer != null) {
+            return;
+        }
+
+        AtomicInteger threadSequence = new AtomicInteger(1);
+        executor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "online-admin-" + threadSequence.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        httpServer = HttpServer.create(address, 16);
+        httpServer.setExecutor(executor);
+        httpServer.createContext("/metrics", get(exchange -> respond(exchange, 200, PrometheusFormat.CONTENT_TYPE,
+            PrometheusFormat.render(server.metrics().snapshot(false), METRIC_PREFIX))));
+        httpServer.createContext("/rooms", get(exchange -> respondJson(exchange, roomsJson(server.roomsSnapshot()))));
+        httpServer.createContext("/connections", get(exchange -> respondJson(exchange,
+            connectionsJson(server.connectionsSnapshot()))));
+        httpServer.createContext("/matches", get(exchange -> respondJson(exchange, matchesJson(server.recentMatches()))));
+        httpServer.createContext("/drain", exchange -> {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain; charset=utf-8", "POST required\n");
+                return;
+            }
+            server.drain();
+            respondJson(exchange, "{\"draining\":" + server.isDraining() + "}");
+        });
+        httpServer.start();
+
+        System.out.println("OnlineServer admin listening on " + httpServer.getAddress());
+    }
+
+    public synchronized void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static HttpHandler get(HttpHandler handler) {
+        return exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "text/plain; charset=utf-8", "GET required\n");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private static void respondJson(HttpExchange exchange, String body) throws IOException {
+        respond(exchange, 200, "application/json; charset=utf-8", body);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String roomsJson(List<OnlineServer.RoomInfo> rooms) {
+        StringBuilder json = new StringBuilder(64 + rooms.size() * 48);
+        json.append("{\"rooms\":[");
+        for (int i = 0; i < rooms.size(); i++) {
+            OnlineServer.RoomInfo room = rooms.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":");
+            appendString(json, room.roomId());
+            json.append(",\"members\":[");
+            for (int j = 0; j < room.members().size(); j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                appendString(json, room.members().get(j));
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String connectionsJson(List<OnlineServer.ConnectionInfo> connections) {
+        StringBuilder json = new StringBuilder(64 + connections.size() * 128);
+        json.append("{\"connections\":[");
+        for (int i = 0; i < connections.size(); i++) {
+            OnlineServer.ConnectionInfo connection = connections.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"playerId\":");
+            appendString(json, connection.playerId());
+            json.append(",\"roomId\":");
+            appendString(json, connection.roomId());
+            json.append(",\"remoteAddress\":");
+            appendString(json, connection.remoteAddress());
+            json.append(",\"connectedAt\":").append(connection.connectedAtMillis());
+            json.append(",\"droppedLines\":").append(connection.droppedLines());
+            json.append(",\"outboundDepth\":").append(connection.outboundDepth());
+            json.append(",\"rttMillis\":").append(connection.rttMillis());
+            json.append(",\"snapshotIntervalMillis\":").append(connection.snapshotIntervalMillis());
+            json.append(",\"snapshotDetail\":");
+            appendString(json, connection.snapshotDetail());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String matchesJson(List<MatchResult> matches) {
+        StringBuilder json = new StringBuilder(64 + matches.size() * 160);
+        json.append("{\"matches\":[");
+        for (int i = 0; i < matches.size(); i++) {
+            MatchResult match = matches.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"roomId\":");
+            appendString(json, match.roomId());
+            json.append(",\"startedAt\":").append(match.startedAtMillis());
+            json.append(",\"durationMillis\":").append(match.durationMillis());
+            json.append(",\"members\":[");
+            for (int j = 0; j < match.members().size(); j++) {
+                MatchResult.Member member = match.members().get(j);
+                if (j > 0) {
+                    json.append(',');
+                }
+                json.append("{\"playerId\":");
+                appendString(json, member.playerId());
+                json.append(",\"playerName\":");
+                appendString(json, member.playerName());
+                json.append(",\"score\":").append(member.score());
+                json.append('}');
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -1,22 +1,46 @@
 package com.xili7.game.online;
 
+import com.xili7.game.diagnostics.FlightEvents;
+import com.xili7.game.leaderboard.Leaderboard.Standing;
+import com.xili7.game.online.MessageParser.LeaderboardPage;
 import com.xili7.game.online.MessageParser.ParsedMessage;
 import com.xili7.game.online.MessageParser.PlayerState;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.transport.Connection;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TCP client used by LibGDX screens to communicate with {@link OnlineServer}.
+ *
+ * Pings the server (quickly right after connecting, then every two seconds)
+ * to track RTT and the server clock, so a START time can be turned into a
+ * local moment shared by both players.
+ *
+ * If the connection drops after WELCOME handed out a resume token, the
+ * client reconnects on its own and RESUMEs the session, so the player keeps
+ * their id and room through a short network blip. Attempts back off
+ * exponentially with jitter, so clients cut off together do not all come
+ * back at once; after {@link #RESUME_WINDOW_MILLIS} (the server's default
+ * grace period) the client gives up and reports a disconnect.
  */
 public class OnlineClient {
+    private static final long PING_PERIOD_MILLIS = 250L;
+    private static final int FAST_PINGS = 8;
+    private static final int SLOW_PING_EVERY = 8;
+
+    public static final long RESUME_WINDOW_MILLIS = 10_000L;
+    private static final long RECONNECT_BASE_MILLIS = 100L;
+    private static final long RECONNECT_MAX_MILLIS = 2_000L;
+    private static final int RECONNECT_TIMEOUT_MILLIS = 1_000;
+
     public interface Listener {
         default void onConnected(String playerId) {
         }
@@ -45,6 +69,45 @@ public class OnlineClient {
         default void onServerError(String errorMessage) {
         }
 
+        /**
+         * Answer to {@link #submitRun}: a {@code ReplayVerifier.Outcome} name
+         * and the score the server's replay reached.
+         */
+        default void onRunVerified(String outcome, int verifiedScore) {
+        }
+
+        /**
+         * Answer to {@link #requestGhost}: the server's best verified run,
+         * or {@code null} if it has none yet.
+         */
+        default void onGhost(InputLog log, int score) {
+        }
+
+        /**
+         * Answer to {@link #requestLeaderboard}.
+         */
+        default void onLeaderboard(LeaderboardPage page) {
+        }
+
+        /**
+         * Answer to {@link #requestRank}; rank 0 if the player is not ranked yet.
+         */
+        default void onRank(Standing standing) {
+        }
+
+        /**
+         * The connection dropped; the client is trying to resume the session.
+         */
+        default void onConnectionLost() {
+        }
+
+        /**
+         * The session continues on a new connection, {@code reconnectMillis}
+         * after the old one was lost.
+         */
+        default void onResumed(long reconnectMillis) {
+        }
+
         default void onDisconnected() {
         }
 
@@ -59,11 +122,22 @@ public class OnlineClient {
     private volatile boolean connected;
     private volatile String playerId;
     private volatile String roomId;
-
-    private Socket socket;
-    private PrintWriter writer;
-    private BufferedReader reader;
-    private ExecutorService readExecutor;
+    private volatile String playerName;
+    private volatile String resumeToken;
+    private volatile boolean reconnecting;
+    private volatile long lostAtNanos;
+    private volatile long lastReconnectMillis = -1L;
+
+    private final ClockSync clock = new ClockSync();
+    private volatile long startAtLocalMillis = Long.MIN_VALUE;
+    // As sent in START, to tell the server repeating it after a RESUME from a new match.
+    private volatile long startAtServerMillis = Long.MIN_VALUE;
+    private volatile boolean hasCourseSeed;
+    private volatile long courseSeed;
+
+    private volatile Connection<ParsedMessage> connection;
+    private ScheduledExecutorService pingScheduler;
+    private int pingTicks;
 
     public OnlineClient(String host, int port) {
         this.host = host;
@@ -74,40 +148,66 @@ public class OnlineClient {
         this.listener = listener;
     }
 
+    /**
+     * Name this player's verified runs are ranked under on the server's
+     * leaderboard; sent on connect, or right away if already connected.
+     */
+    public void setPlayerName(String playerName) {
+        this.playerName = playerName;
+        if (connected && playerName != null) {
+            send(MessageParser.join(playerName));
+        }
+    }
+
     public synchronized void connect() throws IOException {
         if (connected) {
             return;
         }
 
-        socket = new Socket(host, port);
+        Socket socket = new Socket(host, port);
         socket.setTcpNoDelay(true);
-        writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
 
         connected = true;
-
-        readExecutor = Executors.newSingleThreadExecutor();
-        readExecutor.submit(this::readLoop);
-
-        writer.println(MessageParser.join());
+        resumeToken = null;
+        String name = playerName;
+        open(socket, name == null ? MessageParser.join() : MessageParser.join(name));
+
+        pingTicks = 0;
+        pingScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "online-client-ping");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pingScheduler.scheduleAtFixedRate(this::pingTick, 0L, PING_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Leaves the server for good: the session is ended rather than held for
+     * a resume, and the other players see this one leave at once.
+     */
     public synchronized void disconnect() {
         connected = false;
+        reconnecting = false;
+        resumeToken = null;
 
-        if (readExecutor != null) {
-            readExecutor.shutdownNow();
+        if (pingScheduler != null) {
+            pingScheduler.shutdownNow();
+            pingScheduler = null;
         }
-
-        if (socket != null && !socket.isClosed()) {
-            try {
-                socket.close();
-            } catch (IOException ignored) {
-                // ignored
+        Connection<ParsedMessage> last = connection;
+        if (last != null) {
+            if (last.isOpen()) {
+                last.send(MessageParser.leave());
+                last.close();
+            } else {
+                last.closeNow();
             }
         }
 
         roomId = null;
+        startAtLocalMillis = Long.MIN_VALUE;
+        startAtServerMillis = Long.MIN_VALUE;
+        hasCourseSeed = false;
 
         Listener current = listener;
         if (current != null) {
@@ -119,6 +219,21 @@ public class OnlineClient {
         return connected;
     }
 
+    /**
+     * Whether the connection was lost and the session is being resumed.
+     */
+    public boolean isReconnecting() {
+        return reconnecting;
+    }
+
+    /**
+     * Milliseconds the last resume took from losing the connection to
+     * RESUMED, or -1 if none has happened yet.
+     */
+    public long getLastReconnectMillis() {
+        return lastReconnectMillis;
+    }
+
     public String getPlayerId() {
         return playerId;
     }
@@ -127,14 +242,53 @@ public class OnlineClient {
         return roomId;
     }
 
+    /**
+     * Smoothed round-trip time to the server in milliseconds, or -1 while unknown.
+     */
+    public long getRttMillis() {
+        return clock.rttMillis();
+    }
+
+    /**
+     * Current server time estimated from the local clock.
+     */
+    public long serverTimeMillis() {
+        return clock.toServerMillis(localMillis());
+    }
+
+    public boolean hasScheduledStart() {
+        return startAtLocalMillis != Long.MIN_VALUE;
+    }
+
+    /**
+     * Milliseconds until the shared start time of the last START; negative
+     * once it has passed, zero if no start was scheduled.
+     */
+    public long millisUntilStart() {
+        long startAt = startAtLocalMillis;
+        return startAt == Long.MIN_VALUE ? 0L : startAt - localMillis();
+    }
+
+    /**
+     * Whether a START has delivered the room's course seed.
+     */
+    public boolean hasCourseSeed() {
+        return hasCourseSeed;
+    }
+
+    /**
+     * Seed of the room's course from the last START; only meaningful when
+     * {@link #hasCourseSeed()} is true.
+     */
+    public long getCourseSeed() {
+        return courseSeed;
+    }
+
     public void createRoom() {
         if (!connected) {
             return;
         }
-        writer.println(MessageParser.createRoom());
-        if (writer.checkError()) {
-            disconnect();
-        }
+        send(MessageParser.createRoom());
     }
 
     public void joinRoom(String requestedRoomId) {
@@ -142,52 +296,270 @@ public class OnlineClient {
             return;
         }
 
-        writer.println(MessageParser.joinRoom(requestedRoomId.trim().toUpperCase()));
-        if (writer.checkError()) {
-            disconnect();
-        }
+        send(MessageParser.joinRoom(requestedRoomId.trim().toUpperCase()));
     }
 
     public void sendJump() {
         if (!connected || playerId == null || roomId == null) {
             return;
         }
-        writer.println(MessageParser.jump(playerId));
-        if (writer.checkError()) {
-            disconnect();
-        }
+        send(MessageParser.jump(playerId));
     }
 
     public void sendState(float x, float y, int score) {
         if (!connected || playerId == null || roomId == null) {
             return;
         }
-        writer.println(MessageParser.state(playerId, x, y, score));
-        if (writer.checkError()) {
+        send(MessageParser.state(playerId, x, y, score));
+    }
+
+    /**
+     * Sends local state tagged with the course tick it was sampled at, so the
+     * server can judge it at that moment (lag compensation).
+     */
+    public void sendState(float x, float y, int score, long tick) {
+        if (!connected || playerId == null || roomId == null) {
+            return;
+        }
+        send(MessageParser.state(playerId, x, y, score, tick));
+    }
+
+    /**
+     * Submits a finished run for server-side verification; the answer
+     * arrives through {@link Listener#onRunVerified}.
+     */
+    public void submitRun(InputLog log, int claimedScore) {
+        if (!connected) {
+            return;
+        }
+        send(MessageParser.submitRun(log, claimedScore));
+    }
+
+    /**
+     * Asks for the server's best verified run; it arrives through {@link Listener#onGhost}.
+     */
+    public void requestGhost() {
+        if (!connected) {
+            return;
+        }
+        send(MessageParser.getGhost());
+    }
+
+    /**
+     * Asks for the best {@code limit} players; they arrive through {@link Listener#onLeaderboard}.
+     */
+    public void requestLeaderboard(int limit) {
+        if (!connected) {
+            return;
+        }
+        send(MessageParser.getLeaderboard(limit));
+    }
+
+    /**
+     * Asks where {@code name} stands; the answer arrives through {@link Listener#onRank}.
+     */
+    public void requestRank(String name) {
+        if (!connected || name == null || name.isBlank()) {
+            return;
+        }
+        send(MessageParser.getRank(name));
+    }
+
+    private void pingTick() {
+        int tick = pingTicks++;
+        if (tick < FAST_PINGS || tick % SLOW_PING_EVERY == 0) {
+            send(MessageParser.ping(localMillis()));
+        }
+    }
+
+    private static long localMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private void send(String line) {
+        Connection<ParsedMessage> current = connection;
+        // With a resume token the closed connection's listener takes over; see connectionClosed.
+        if (current != null && !current.send(line) && resumeToken == null) {
             disconnect();
         }
     }
 
-    private void readLoop() {
-        try {
-            String line;
-            while (connected && (line = reader.readLine()) != null) {
-                handle(line);
+    private void open(Socket socket, String firstLine) throws IOException {
+        Connection<ParsedMessage> opened =
+            new Connection<>("online-client", socket, MessageParser.CODEC, Connection.Options.client());
+        connection = opened;
+        opened.send(firstLine);
+        opened.start(new Connection.Listener<>() {
+            @Override
+            public void onMessage(ParsedMessage message) {
+                FlightEvents.ClientMessage event = new FlightEvents.ClientMessage();
+                event.begin();
+                handle(message);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.command = message.command();
+                    event.commit();
+                }
             }
-        } catch (Exception e) {
-            Listener current = listener;
-            if (connected && current != null) {
-                current.onError(e);
+
+            @Override
+            public void onClosed(Throwable cause) {
+                connectionClosed(opened, cause);
             }
-        } finally {
-            if (connected) {
-                disconnect();
+        });
+    }
+
+    private void connectionClosed(Connection<ParsedMessage> closed, Throwable cause) {
+        if (!connected || closed != connection) {
+            return;
+        }
+        if (resumeToken != null) {
+            connectionLost();
+            return;
+        }
+        Listener current = listener;
+        if (cause != null && current != null) {
+            current.onError(cause instanceof Exception exception ? exception : new IOException(cause));
+        }
+        disconnect();
+    }
+
+    private synchronized void connectionLost() {
+        if (!connected || reconnecting) {
+            // A failed attempt; the reconnect thread tries the next one.
+            return;
+        }
+        reconnecting = true;
+        lostAtNanos = System.nanoTime();
+        Thread reconnector = new Thread(this::reconnectLoop, "online-client-reconnect");
+        reconnector.setDaemon(true);
+        reconnector.start();
+
+        Listener current = listener;
+        if (current != null) {
+            current.onConnectionLost();
+        }
+    }
+
+    private void reconnectLoop() {
+        long deadline = lostAtNanos + TimeUnit.MILLISECONDS.toNanos(RESUME_WINDOW_MILLIS);
+        long backoff = RECONNECT_BASE_MILLIS;
+        while (connected && reconnecting && System.nanoTime() - deadline < 0L) {
+            Connection<ParsedMessage> current = connection;
+            long delay;
+            if (current != null && current.isOpen()) {
+                // An attempt is connected and waits for RESUMED.
+                delay = RECONNECT_BASE_MILLIS;
+            } else {
+                // Half the backoff plus a random share of the other half.
+                delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                backoff = Math.min(RECONNECT_MAX_MILLIS, backoff * 2);
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (current == null || !current.isOpen()) {
+                tryResume();
             }
         }
+        if (connected && reconnecting) {
+            System.err.println("Could not resume the online session within " + RESUME_WINDOW_MILLIS + " ms");
+            disconnect();
+        }
     }
 
-    private void handle(String line) {
-        ParsedMessage message = MessageParser.parse(line);
+    private void tryResume() {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), RECONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            synchronized (this) {
+                String token = resumeToken;
+                if (!connected || !reconnecting || token == null) {
+                    socket.close();
+                    return;
+                }
+                open(socket, MessageParser.resume(token));
+            }
+        } catch (IOException e) {
+            // Still unreachable; the next attempt waits longer.
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+
+    /**
+     * Dispatches one server message to the listener.
+     */
+    private void handle(ParsedMessage message) {
+        // Clock messages are answered even before a listener is attached.
+        switch (message.command()) {
+            case "PING" -> {
+                if (message.size() > 0) {
+                    send(MessageParser.pong(Long.parseLong(message.arg(0)), localMillis()));
+                }
+                return;
+            }
+            case "PONG" -> {
+                if (message.size() > 1) {
+                    clock.addSample(Long.parseLong(message.arg(0)), Long.parseLong(message.arg(1)), localMillis());
+                }
+                return;
+            }
+            case "WELCOME" -> {
+                if (reconnecting) {
+                    // The fresh session a RESUME replaces; keep the id and token already held.
+                    return;
+                }
+                if (message.size() > 1) {
+                    resumeToken = message.arg(1);
+                }
+            }
+            case "RESUMED" -> {
+                if (!reconnecting) {
+                    return;
+                }
+                roomId = message.size() > 1 && !message.arg(1).isEmpty() ? message.arg(1) : null;
+                lastReconnectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lostAtNanos);
+                reconnecting = false;
+                Listener current = listener;
+                if (current != null) {
+                    current.onResumed(lastReconnectMillis);
+                }
+                return;
+            }
+            case "RESUME_FAILED" -> {
+                if (reconnecting) {
+                    disconnect();
+                }
+                return;
+            }
+            case "START" -> {
+                long startAt = message.size() > 0 ? Long.parseLong(message.arg(0)) : Long.MIN_VALUE;
+                if (startAt != Long.MIN_VALUE && startAt == startAtServerMillis) {
+                    // The match already under way, repeated after RESUMED.
+                    return;
+                }
+                startAtServerMillis = startAt;
+                // Without a start time (older server) or a clock estimate yet, begin on receipt.
+                startAtLocalMillis = startAt != Long.MIN_VALUE && clock.isSynchronized()
+                    ? clock.toLocalMillis(startAt)
+                    : localMillis();
+                if (message.size() > 1) {
+                    courseSeed = Long.parseLong(message.arg(1));
+                    hasCourseSeed = true;
+                }
+            }
+            default -> {
+                // dispatched below
+            }
+        }
+
         Listener current = listener;
         if (current == null) {
             return;
@@ -230,6 +602,21 @@ public class OnlineClient {
                     current.onServerError(message.arg(0));
                 }
             }
+            case "RUN_RESULT" -> {
+                if (message.size() > 1) {
+                    current.onRunVerified(message.arg(0), Integer.parseInt(message.arg(1)));
+                }
+            }
+            case "GHOST" -> {
+                MessageParser.RunSubmission ghost = MessageParser.parseGhost(message);
+                if (ghost == null) {
+                    current.onGhost(null, 0);
+                } else {
+                    current.onGhost(ghost.log(), ghost.claimedScore());
+                }
+            }
+            case "LEADERBOARD" -> current.onLeaderboard(MessageParser.parseLeaderboard(message));
+            case "RANK" -> current.onRank(MessageParser.parseRank(message));
             default -> {
                 // ignore unknown commands
             }
@@ -1,48 +1,271 @@
 package com.xili7.game.online;
 
+import com.xili7.game.diagnostics.FlightEvents;
+import com.xili7.game.history.MatchLog;
+import com.xili7.game.history.MatchResult;
+import com.xili7.game.leaderboard.Leaderboard;
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.CounterFamily;
+import com.xili7.game.metrics.Histogram;
+import com.xili7.game.metrics.MetricsRegistry;
+import com.xili7.game.metrics.ServerMetrics;
 import com.xili7.game.online.MessageParser.ParsedMessage;
 import com.xili7.game.online.MessageParser.PlayerState;
+import com.xili7.game.online.MessageParser.RunSubmission;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.replay.ReplayArchive;
+import com.xili7.game.replay.ReplayRecorder;
+import com.xili7.game.replay.ReplayVerifier;
+import com.xili7.game.sim.Course;
+import com.xili7.game.transport.Connection;
+import com.xili7.game.transport.IngressLimiter;
+import com.xili7.game.transport.TransportServer;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Dedicated multiplayer server for Flappy Bird Online.
  *
  * Architecture:
- * - Java ServerSocket
- * - one thread per client
+ * - shared {@link TransportServer}: one read and one write thread per client
+ * - rooms of two players, BULK_STATE snapshots at a per-client rate and
+ *   detail level chosen from link quality (see {@link SnapshotRate})
+ * - PING every second to measure each client's RTT; START carries the
+ *   server time at which both players begin and the room's course seed, so
+ *   pipes are generated locally (see {@link com.xili7.game.sim.Course})
+ * - scores are decided by the server: each STATE is judged at the course
+ *   tick the client reported, within a bounded rewind window (see {@link StateHistory})
+ * - SUBMIT_RUN (seed plus flap ticks) is replayed on a fork-join pool and
+ *   answered with RUN_RESULT (see {@link ReplayVerifier}); only a run on
+ *   the course the player got in its last START is replayed, any other is
+ *   answered WRONG_COURSE; with
+ *   {@code flappy.replay.file} set, every verified run of every room is
+ *   also appended to that replay file (see {@link ReplayRecorder}), and
+ *   with {@code flappy.replay.archive} set, to that indexed archive
+ *   directory (see {@link ReplayArchive}) by a thread of its own
+ * - GET_GHOST is answered with GHOST, the best accepted run so far (from the
+ *   archive after a restart), for single players to race against
+ * - accepted runs of players who named themselves in JOIN, flown on the
+ *   course their room issued at START, go on the {@link Leaderboard},
+ *   queried with GET_LEADERBOARD and GET_RANK; with
+ *   {@code flappy.leaderboard.file} set it survives restarts
+ * - when the last member leaves a room that started, its result (members,
+ *   the best score judged for each, duration) is kept among the recent
+ *   matches; with {@code flappy.matchlog.file} set it is also committed to
+ *   that write-ahead log, which restores them after a restart (see {@link MatchLog})
+ * - sessions outlive their socket: WELCOME carries a resume token, and a
+ *   connection of a player in a room that is lost without LEAVE (plain I/O
+ *   loss, not a flood or malformed-message cut-off) keeps the room slot and
+ *   last state for {@code flappy.resume.graceMillis}; a new connection sending
+ *   RESUME|token within that window, before joining a room of its own,
+ *   takes the session over and gets RESUMED (and the room's START again,
+ *   once it has started), otherwise the player is removed and LEFT is
+ *   broadcast
  * - plain-text protocol (command|arg1|arg2)
  */
 public class OnlineServer {
+    private static final long PING_PERIOD_MILLIS = 1000L;
+    private static final long MIN_START_DELAY_MILLIS = 500L;
+    private static final long MAX_START_DELAY_MILLIS = 2000L;
+    private static final long MAX_REWIND_MILLIS = Long.getLong("flappy.lagcomp.maxRewindMillis", 250L);
+    private static final long AHEAD_TOLERANCE_MILLIS = Long.getLong("flappy.lagcomp.aheadMillis", 50L);
+    private static final int VERIFY_THREADS =
+        Integer.getInteger("flappy.verify.threads", Runtime.getRuntime().availableProcessors());
+    private static final int VERIFY_MAX_PENDING = Integer.getInteger("flappy.verify.maxPending", 4096);
+    private static final String REPLAY_FILE = System.getProperty("flappy.replay.file", "");
+    private static final int REPLAY_BUFFERS = Integer.getInteger("flappy.replay.buffers", 256);
+    private static final String REPLAY_ARCHIVE = System.getProperty("flappy.replay.archive", "");
+    private static final String LEADERBOARD_FILE = System.getProperty("flappy.leaderboard.file", "");
+    private static final int LEADERBOARD_MAX_ROWS = 100;
+    private static final String MATCH_LOG = System.getProperty("flappy.matchlog.file", "");
+    private static final int MATCH_LOG_MAX_PENDING = Integer.getInteger("flappy.matchlog.maxPending", 4096);
+    private static final int RECENT_MATCHES = 50;
+    private static final long RESUME_GRACE_MILLIS = Long.getLong("flappy.resume.graceMillis", 10_000L);
+    private static final int RESUME_TOKEN_BYTES = 16;
+    private static final SecureRandom RESUME_TOKENS = new SecureRandom();
+
+    private final long epochNanos = System.nanoTime();
     private final int port;
+    private final Connection.Options connectionOptions;
+    private final SnapshotPolicy snapshotPolicy;
     private final AtomicInteger idSequence = new AtomicInteger(1);
     private final AtomicInteger roomSequence = new AtomicInteger(1);
     private final Map<String, PlayerState> players = new ConcurrentHashMap<>();
     private final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    private final Map<String, ClientHandler> sessions = new ConcurrentHashMap<>();
     private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+    private final ServerMetrics metrics = new ServerMetrics(metricsRegistry);
+    private final Counter snapshotsFull = metricsRegistry.counter("snapshots_full");
+    private final Counter snapshotsReduced = metricsRegistry.counter("snapshots_reduced");
+    private final Histogram rttNanos = metricsRegistry.histogram("rtt_nanos");
+    private final CounterFamily stateVerdicts = metricsRegistry.counterFamily("state_verdicts", "verdict");
+    private final Counter replaysArchived = metricsRegistry.counter("replays_archived");
+    private final CounterFamily sessionEvents = metricsRegistry.counterFamily("session_events", "event");
+    private final Histogram resumeGapNanos = metricsRegistry.histogram("resume_gap_nanos");
 
     private volatile boolean running;
-    private ServerSocket serverSocket;
-    private Thread acceptThread;
+    private volatile boolean draining;
+    private TransportServer<ParsedMessage> transport;
     private ScheduledExecutorService snapshotScheduler;
+    private ReplayVerifier replayVerifier;
+    private volatile ReplayRecorder replayRecorder;
+    private volatile ReplayArchive replayArchive;
+    // Appends to the archive, which replays keyframes and waits for the disk; never the verifier's threads.
+    private volatile ExecutorService archiveWriter;
+    private volatile Leaderboard leaderboard;
+    private volatile MatchLog matchLog;
+    // Newest first; guarded by itself.
+    private final Deque<MatchResult> recentMatches = new ArrayDeque<>(RECENT_MATCHES);
+    private final AtomicReference<BestRun> bestRun = new AtomicReference<>();
+    private InetSocketAddress adminAddress;
+    private OnlineAdminServer adminServer;
+
+    // The highest-scoring verified run, served as the ghost.
+    private record BestRun(InputLog log, int score) {
+    }
+
+    /**
+     * Read-only view of a room for admin listings.
+     */
+    public record RoomInfo(String roomId, List<String> members) {
+    }
+
+    /**
+     * Read-only view of a connection for admin listings.
+     */
+    public record ConnectionInfo(String playerId, String roomId, String remoteAddress, long connectedAtMillis,
+                                 long droppedLines, int outboundDepth, long rttMillis,
+                                 long snapshotIntervalMillis, String snapshotDetail) {
+    }
 
     public OnlineServer(int port) {
+        this(port, IngressLimiter.Policy.fromSystemProperties(IngressLimiter.Policy.defaults()));
+    }
+
+    public OnlineServer(int port, IngressLimiter.Policy ingressPolicy) {
+        this(port, ingressPolicy, SnapshotPolicy.fromSystemProperties(SnapshotPolicy.defaults()));
+    }
+
+    public OnlineServer(int port, IngressLimiter.Policy ingressPolicy, SnapshotPolicy snapshotPolicy) {
         this.port = port;
+        this.connectionOptions = Connection.Options.server(ingressPolicy, metrics);
+        this.snapshotPolicy = snapshotPolicy;
+
+        metricsRegistry.gauge("connections", clients::size);
+        metricsRegistry.gauge("players", players::size);
+        metricsRegistry.gauge("rooms", rooms::size);
+    }
+
+    public MetricsRegistry metrics() {
+        return metricsRegistry;
+    }
+
+    /**
+     * The archive verified runs are appended to, or {@code null} if
+     * {@code flappy.replay.archive} is not set.
+     */
+    public ReplayArchive replayArchive() {
+        return replayArchive;
+    }
+
+    /**
+     * Enables the admin HTTP endpoint on the given address. Must be called before {@link #start()}.
+     */
+    public synchronized void enableAdmin(InetSocketAddress address) {
+        this.adminAddress = address;
+    }
+
+    public List<RoomInfo> roomsSnapshot() {
+        List<RoomInfo> result = new ArrayList<>(rooms.size());
+        for (Room room : rooms.values()) {
+            List<ClientHandler> members = room.membersSnapshot();
+            List<String> memberIds = new ArrayList<>(members.size());
+            for (ClientHandler member : members) {
+                memberIds.add(member.playerId);
+            }
+            result.add(new RoomInfo(room.roomId, memberIds));
+        }
+        return result;
+    }
+
+    /**
+     * The last matches played, newest first, including those recovered from the match log.
+     */
+    public List<MatchResult> recentMatches() {
+        synchronized (recentMatches) {
+            return List.copyOf(recentMatches);
+        }
+    }
+
+    public List<ConnectionInfo> connectionsSnapshot() {
+        List<ConnectionInfo> result = new ArrayList<>(clients.size());
+        for (ClientHandler client : clients) {
+            result.add(new ConnectionInfo(
+                client.playerId,
+                client.roomId,
+                client.connection.remoteAddress(),
+                client.connection.connectedAtMillis(),
+                client.connection.droppedLines(),
+                client.connection.outboundDepth(),
+                client.snapshotRate.rttMillis(),
+                client.snapshotRate.intervalMillis(),
+                client.snapshotRate.detail().name()
+            ));
+        }
+        return result;
+    }
+
+    /**
+     * Server clock sent in PING/PONG and START: monotonic milliseconds since this server was created.
+     */
+    public long serverTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - epochNanos);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Stops accepting new connections and rooms. Rooms already playing keep
+     * running; the server stops once the last one is empty.
+     */
+    public void drain() {
+        if (draining || !running) {
+            return;
+        }
+        draining = true;
+        System.out.println("OnlineServer draining, " + rooms.size() + " room(s) left");
+        stopIfDrained();
+    }
+
+    private void stopIfDrained() {
+        if (draining && running && rooms.isEmpty()) {
+            // Stop from a separate thread: callers may be client or admin threads that stop() closes.
+            new Thread(this::stop, "online-server-drain").start();
+        }
     }
 
     public synchronized void start() throws IOException {
@@ -51,68 +274,171 @@ public class OnlineServer {
         }
 
         running = true;
-        serverSocket = new ServerSocket(port);
+        transport = new TransportServer<>(
+            "online-server",
+            port,
+            MessageParser.CODEC,
+            connectionOptions,
+            () -> "P" + idSequence.getAndIncrement(),
+            this::accept
+        );
+        transport.start();
+
+        replayVerifier = new ReplayVerifier(VERIFY_THREADS, VERIFY_MAX_PENDING, metricsRegistry);
+        if (!REPLAY_FILE.isBlank()) {
+            replayRecorder = new ReplayRecorder(Path.of(REPLAY_FILE), REPLAY_BUFFERS, metricsRegistry);
+        }
+        if (!REPLAY_ARCHIVE.isBlank()) {
+            replayArchive = ReplayArchive.openForWriting(Path.of(REPLAY_ARCHIVE));
+            archiveWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replay-archive");
+                thread.setDaemon(true);
+                return thread;
+            });
+            int[] top = replayArchive.topScores(1);
+            if (top.length > 0) {
+                ReplayArchive.Entry best = replayArchive.entry(top[0]);
+                offerBestRun(best.run().log(), best.score());
+            }
+        }
+        leaderboard = new Leaderboard(LEADERBOARD_FILE.isBlank() ? null : Path.of(LEADERBOARD_FILE), metricsRegistry);
+        if (!MATCH_LOG.isBlank()) {
+            matchLog = new MatchLog(Path.of(MATCH_LOG), MATCH_LOG_MAX_PENDING, metricsRegistry, this::rememberMatch);
+        }
 
         snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
-        snapshotScheduler.scheduleAtFixedRate(this::broadcastSnapshotSafely, 0, 100, TimeUnit.MILLISECONDS);
+        snapshotScheduler.scheduleAtFixedRate(
+            () -> broadcastSnapshotSafely(false), 0, snapshotPolicy.minIntervalMillis(), TimeUnit.MILLISECONDS);
+        snapshotScheduler.scheduleAtFixedRate(this::pingClients, PING_PERIOD_MILLIS, PING_PERIOD_MILLIS,
+            TimeUnit.MILLISECONDS);
 
-        acceptThread = new Thread(this::acceptLoop, "online-server-accept");
-        acceptThread.start();
+        if (adminAddress != null) {
+            adminServer = new OnlineAdminServer(this, adminAddress);
+            adminServer.start();
+        }
 
         System.out.println("OnlineServer started on port " + port);
     }
 
     public synchronized void stop() {
+        if (!running) {
+            return;
+        }
         running = false;
 
+        if (adminServer != null) {
+            adminServer.stop();
+            adminServer = null;
+        }
+
         if (snapshotScheduler != null) {
             snapshotScheduler.shutdownNow();
         }
 
-        for (ClientHandler client : clients) {
-            client.close();
+        if (replayVerifier != null) {
+            replayVerifier.close();
+        }
+
+        if (replayRecorder != null) {
+            replayRecorder.close();
+            replayRecorder = null;
         }
-        clients.clear();
-        players.clear();
-        rooms.clear();
 
-        if (serverSocket != null && !serverSocket.isClosed()) {
+        if (archiveWriter != null) {
+            // Runs the verifier handed over before it closed are still archived.
+            archiveWriter.shutdown();
             try {
-                serverSocket.close();
-            } catch (IOException ignored) {
-                // ignored
+                archiveWriter.awaitTermination(5L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            archiveWriter = null;
         }
 
-        if (acceptThread != null) {
-            acceptThread.interrupt();
+        if (replayArchive != null) {
+            replayArchive.close();
+            replayArchive = null;
         }
-    }
 
-    private void acceptLoop() {
-        while (running) {
-            try {
-                Socket socket = serverSocket.accept();
-                socket.setTcpNoDelay(true);
+        if (leaderboard != null) {
+            leaderboard.close();
+            leaderboard = null;
+        }
 
-                String playerId = "P" + idSequence.getAndIncrement();
-                ClientHandler clientHandler = new ClientHandler(playerId, socket);
-                clients.add(clientHandler);
-                players.put(playerId, new PlayerState(playerId, 0f, 0f, 0));
+        if (transport != null) {
+            transport.stop();
+        }
 
-                clientHandler.send(MessageParser.welcome(playerId));
+        // Sessions held for a resume are no longer expired by the scheduler; end them
+        // here so their rooms close and the matches reach the log.
+        for (ClientHandler client : clients) {
+            client.expire(client.connection);
+        }
+        // Left only by a read thread that did not finish in time; the log must not miss the match.
+        for (Map.Entry<String, Room> entry : rooms.entrySet()) {
+            finishRoom(entry.getKey(), entry.getValue());
+        }
 
-                Thread thread = new Thread(clientHandler, "client-" + playerId);
-                thread.start();
-            } catch (IOException e) {
-                if (running) {
-                    System.err.println("Accept loop error: " + e.getMessage());
-                }
-            }
+        if (matchLog != null) {
+            matchLog.close();
+            matchLog = null;
         }
+        clients.clear();
+        sessions.clear();
+        players.clear();
+        rooms.clear();
     }
 
-    private void broadcastSnapshotSafely() {
+    private Connection.Listener<ParsedMessage> accept(Connection<ParsedMessage> connection) {
+        if (draining) {
+            connection.send(MessageParser.serialize("ERROR", "Server is draining"));
+            return null;
+        }
+
+        ClientHandler clientHandler = new ClientHandler(connection);
+        clients.add(clientHandler);
+        sessions.put(clientHandler.resumeToken, clientHandler);
+        players.put(clientHandler.playerId, new PlayerState(clientHandler.playerId, 0f, 0f, 0));
+        clientHandler.send(MessageParser.welcome(clientHandler.playerId, clientHandler.resumeToken));
+        return new Link(connection, clientHandler);
+    }
+
+    /**
+     * Moves the link's connection to the held session named by the token.
+     * The session the connection was welcomed into only ever saw WELCOME,
+     * so it is dropped without a LEFT.
+     */
+    private void resume(Link link, ParsedMessage message) {
+        ClientHandler fresh = link.session;
+        ClientHandler held = message.size() > 0 ? sessions.get(message.arg(0)) : null;
+        // A session that has joined a room since connecting would be stranded in it.
+        if (held == null || held == fresh || fresh.roomId != null || !held.attach(link.connection)) {
+            fresh.send(MessageParser.resumeFailed());
+            return;
+        }
+        link.session = held;
+        fresh.retire();
+        clients.remove(fresh);
+        sessions.remove(fresh.resumeToken);
+        players.remove(fresh.playerId);
+        held.send(MessageParser.resumed(held.playerId, held.roomId));
+        String heldRoomId = held.roomId;
+        Room room = heldRoomId != null ? rooms.get(heldRoomId) : null;
+        String start = room != null ? room.startMessage() : null;
+        if (start != null) {
+            // START may have gone to the lost connection; a client that got it ignores the repeat.
+            held.send(start);
+        }
+    }
+
+    /**
+     * Sends BULK_STATE to every room member whose snapshot is due, or to all
+     * members when {@code force} is set.
+     */
+    private void broadcastSnapshotSafely(boolean force) {
+        long tickStart = metrics.tickStarted(TimeUnit.MILLISECONDS.toNanos(snapshotPolicy.minIntervalMillis()));
+        FlightEvents.RoomTick tickEvent = new FlightEvents.RoomTick();
+        tickEvent.begin();
         try {
             for (Room room : rooms.values()) {
                 List<ClientHandler> members = room.membersSnapshot();
@@ -120,22 +446,77 @@ public class OnlineServer {
                     continue;
                 }
 
-                List<PlayerState> snapshot = new ArrayList<>(members.size());
+                FlightEvents.SnapshotBroadcast broadcastEvent = new FlightEvents.SnapshotBroadcast();
+                broadcastEvent.begin();
+                long fanOutStart = System.nanoTime();
+                List<PlayerState> snapshot = null;
+                String fullMessage = null;
+                int receivers = 0;
+                long bytes = 0L;
                 for (ClientHandler member : members) {
-                    PlayerState state = players.get(member.playerId);
-                    if (state != null) {
-                        snapshot.add(state);
+                    SnapshotRate rate = member.snapshotRate;
+                    if (!force && !rate.isDue(tickStart)) {
+                        continue;
+                    }
+                    if (snapshot == null) {
+                        snapshot = new ArrayList<>(members.size());
+                        for (ClientHandler roomMember : members) {
+                            PlayerState state = players.get(roomMember.playerId);
+                            if (state != null) {
+                                snapshot.add(state);
+                            }
+                        }
+                        fullMessage = MessageParser.bulkState(snapshot);
+                    }
+                    if (snapshot.isEmpty()) {
+                        break;
+                    }
+
+                    SnapshotRate.Detail detail = rate.beforeSend(
+                        tickStart, member.connection.outboundDepth(), member.connection.bytesWritten(),
+                        ServerMetrics.lineBytes(fullMessage));
+                    String message;
+                    if (detail == SnapshotRate.Detail.FULL) {
+                        message = fullMessage;
+                        snapshotsFull.increment();
+                    } else {
+                        message = MessageParser.bulkStateReduced(snapshot, member.playerId);
+                        snapshotsReduced.increment();
                     }
+                    member.send(message);
+                    rate.sent(tickStart);
+                    receivers++;
+                    bytes += ServerMetrics.lineBytes(message);
                 }
-                if (!snapshot.isEmpty()) {
-                    String bulkMessage = MessageParser.bulkState(snapshot);
-                    for (ClientHandler member : members) {
-                        member.send(bulkMessage);
+
+                if (receivers > 0) {
+                    metrics.broadcastNanos.recordSince(fanOutStart);
+                    broadcastEvent.end();
+                    if (broadcastEvent.shouldCommit()) {
+                        broadcastEvent.roomId = room.roomId;
+                        broadcastEvent.members = receivers;
+                        broadcastEvent.bytes = bytes;
+                        broadcastEvent.commit();
                     }
                 }
             }
         } catch (Exception e) {
             System.err.println("Snapshot broadcast error: " + e.getMessage());
+        } finally {
+            metrics.tickNanos.recordSince(tickStart);
+            tickEvent.end();
+            if (tickEvent.shouldCommit()) {
+                tickEvent.rooms = rooms.size();
+                tickEvent.players = players.size();
+                tickEvent.commit();
+            }
+        }
+    }
+
+    private void pingClients() {
+        String ping = MessageParser.ping(serverTimeMillis());
+        for (ClientHandler client : clients) {
+            client.send(ping);
         }
     }
 
@@ -148,6 +529,10 @@ public class OnlineServer {
     }
 
     private void handleCreateRoom(ClientHandler clientHandler) {
+        if (draining) {
+            clientHandler.send(MessageParser.serialize("ERROR", "Server is draining"));
+            return;
+        }
         leaveCurrentRoom(clientHandler);
 
         String roomId = nextRoomId();
@@ -165,6 +550,11 @@ public class OnlineServer {
             return;
         }
 
+        if (draining) {
+            clientHandler.send(MessageParser.serialize("ERROR", "Server is draining"));
+            return;
+        }
+
         String requestedRoomId = message.arg(0).trim().toUpperCase();
         Room room = rooms.get(requestedRoomId);
         if (room == null) {
@@ -187,11 +577,25 @@ public class OnlineServer {
         maybeStartRoom(room);
     }
 
+    /**
+     * Starts a full room at a shared server time far enough ahead for the
+     * slowest member to receive START before it passes.
+     */
     private void maybeStartRoom(Room room) {
         List<ClientHandler> members = room.membersSnapshot();
         if (members.size() == 2) {
+            long slowestRtt = 0L;
+            for (ClientHandler member : members) {
+                slowestRtt = Math.max(slowestRtt, member.snapshotRate.rttMillis());
+            }
+            long delay = Math.min(MAX_START_DELAY_MILLIS, Math.max(MIN_START_DELAY_MILLIS, 2L * slowestRtt + 300L));
+            String start = MessageParser.start(serverTimeMillis() + delay, room.course.seed());
+            room.start(System.currentTimeMillis() + delay, start);
             for (ClientHandler member : members) {
-                member.send(MessageParser.start());
+                member.history.setCourse(room.course);
+                member.issuedCourse = room.course;
+                member.matchScore = 0;
+                member.send(start);
             }
         }
     }
@@ -203,15 +607,57 @@ public class OnlineServer {
         }
 
         Room room = rooms.get(currentRoomId);
+        MatchResult finished = null;
         if (room != null) {
             synchronized (room) {
                 room.remove(clientHandler);
-                if (room.size() == 0) {
-                    rooms.remove(currentRoomId);
+                room.finish(clientHandler);
+                if (room.size() == 0 && rooms.remove(currentRoomId, room)) {
+                    finished = room.result(System.currentTimeMillis());
                 }
             }
         }
         clientHandler.roomId = null;
+        if (finished != null) {
+            recordMatch(finished);
+        }
+        stopIfDrained();
+    }
+
+    private void finishRoom(String roomId, Room room) {
+        MatchResult finished = null;
+        synchronized (room) {
+            if (rooms.remove(roomId, room)) {
+                finished = room.result(System.currentTimeMillis());
+            }
+        }
+        if (finished != null) {
+            recordMatch(finished);
+        }
+    }
+
+    private void recordMatch(MatchResult result) {
+        rememberMatch(result);
+        MatchLog log = matchLog;
+        if (log != null) {
+            // Dropped results are counted by the log; nothing here waits for the disk.
+            log.append(result);
+        }
+    }
+
+    private void rememberMatch(MatchResult result) {
+        synchronized (recentMatches) {
+            if (recentMatches.size() == RECENT_MATCHES) {
+                recentMatches.removeLast();
+            }
+            recentMatches.addFirst(result);
+        }
+    }
+
+    private void offerBestRun(InputLog log, int score) {
+        BestRun offered = new BestRun(log, score);
+        bestRun.accumulateAndGet(offered, (current, next) -> current == null || next.score() > current.score()
+            ? next : current);
     }
 
     private void broadcastToRoom(String roomId, String message) {
@@ -220,14 +666,20 @@ public class OnlineServer {
             return;
         }
 
+        long fanOutStart = System.nanoTime();
         for (ClientHandler member : room.membersSnapshot()) {
             member.send(message);
         }
+        metrics.broadcastNanos.recordSince(fanOutStart);
     }
 
     private void disconnect(ClientHandler clientHandler) {
-        clients.remove(clientHandler);
-        clientHandler.close();
+        clientHandler.retire();
+        if (!clients.remove(clientHandler)) {
+            return;
+        }
+        sessions.remove(clientHandler.resumeToken);
+        clientHandler.connection.close();
 
         String roomId = clientHandler.roomId;
         leaveCurrentRoom(clientHandler);
@@ -238,18 +690,97 @@ public class OnlineServer {
         }
     }
 
+    /**
+     * Benchmark hook: creates a room whose members write to in-memory sinks
+     * instead of sockets. Returns one inbound line handler per member, which
+     * processes a line exactly as if it had been read from that player's
+     * socket. Bypasses the two-player limit so fan-out can be measured at any
+     * room size.
+     */
+    List<Consumer<String>> openSinkRoom(List<? extends Writer> sinks) {
+        String roomId = nextRoomId();
+        Room room = new Room(roomId);
+        List<Consumer<String>> inbound = new ArrayList<>(sinks.size());
+        for (Writer sink : sinks) {
+            Connection<ParsedMessage> connection = Connection.sink(
+                "P" + idSequence.getAndIncrement(), sink, MessageParser.CODEC, connectionOptions);
+            ClientHandler clientHandler = new ClientHandler(connection);
+            connection.start(clientHandler);
+            clientHandler.roomId = roomId;
+            clients.add(clientHandler);
+            players.put(clientHandler.playerId, new PlayerState(clientHandler.playerId, 0f, 0f, 0));
+            room.add(clientHandler);
+            inbound.add(line -> {
+                try {
+                    connection.handleLine(line);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        rooms.put(roomId, room);
+        return inbound;
+    }
+
+    /**
+     * Benchmark hook: runs one snapshot tick on the calling thread, sending
+     * to every member regardless of its per-client rate.
+     */
+    void runSnapshotTick() {
+        broadcastSnapshotSafely(true);
+    }
+
+    private static String newResumeToken() {
+        byte[] token = new byte[RESUME_TOKEN_BYTES];
+        RESUME_TOKENS.nextBytes(token);
+        return HexFormat.of().formatHex(token);
+    }
+
     private String nextRoomId() {
         return String.format("R%04d", roomSequence.getAndIncrement());
     }
 
     private static final class Room {
         private final String roomId;
+        private final Course course = new Course(ThreadLocalRandom.current().nextLong());
         private final List<ClientHandler> members = new ArrayList<>(2);
+        // Wall-clock time the match begins, 0 until START.
+        private long startedAtMillis;
+        // START as sent to the members, null until then.
+        private String startMessage;
+        // Members who left the started match, with the score they finished on.
+        private final List<MatchResult.Member> finished = new ArrayList<>(2);
 
         private Room(String roomId) {
             this.roomId = roomId;
         }
 
+        private synchronized void start(long atMillis, String message) {
+            if (startedAtMillis == 0L) {
+                startedAtMillis = atMillis;
+                startMessage = message;
+            }
+        }
+
+        private synchronized String startMessage() {
+            return startMessage;
+        }
+
+        private synchronized void finish(ClientHandler member) {
+            if (startedAtMillis != 0L) {
+                finished.add(new MatchResult.Member(member.playerId, member.playerName, member.matchScore));
+            }
+        }
+
+        /**
+         * The match, once the last member has left; {@code null} if it never began.
+         */
+        private synchronized MatchResult result(long endedAtMillis) {
+            return startedAtMillis == 0L || endedAtMillis <= startedAtMillis
+                ? null
+                : new MatchResult(roomId, startedAtMillis, endedAtMillis, finished);
+        }
+
         private synchronized void add(ClientHandler clientHandler) {
             members.add(clientHandler);
         }
@@ -267,44 +798,76 @@ public class OnlineServer {
         }
     }
 
-    private final class ClientHandler implements Runnable {
-        private final String playerId;
-        private final Socket socket;
-        private final BufferedReader reader;
-        private final PrintWriter writer;
-
-        private volatile boolean connected = true;
-        private volatile String roomId;
+    /**
+     * Listener of one network connection: hands its messages to the session
+     * it currently belongs to, which RESUME may change.
+     */
+    private final class Link implements Connection.Listener<ParsedMessage> {
+        private final Connection<ParsedMessage> connection;
+        private volatile ClientHandler session;
 
-        private ClientHandler(String playerId, Socket socket) throws IOException {
-            this.playerId = playerId;
-            this.socket = socket;
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-            this.writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+        private Link(Connection<ParsedMessage> connection, ClientHandler session) {
+            this.connection = connection;
+            this.session = session;
         }
 
         @Override
-        public void run() {
-            try {
-                String line;
-                while (connected && (line = reader.readLine()) != null) {
-                    ParsedMessage message = MessageParser.parse(line);
-                    handleMessage(message);
-                }
-            } catch (Exception e) {
-                if (connected) {
-                    System.err.println("Client " + playerId + " error: " + e.getMessage());
-                }
-            } finally {
-                disconnect(this);
+        public void onMessage(ParsedMessage message) {
+            if ("RESUME".equals(message.command())) {
+                resume(this, message);
+            } else {
+                session.onMessage(message);
             }
         }
 
-        private void handleMessage(ParsedMessage message) {
+        @Override
+        public void onClosed(Throwable cause) {
+            session.connectionClosed(connection, cause);
+        }
+    }
+
+    /**
+     * One player's session; outlives a lost connection for the resume grace window.
+     */
+    private final class ClientHandler implements Connection.Listener<ParsedMessage> {
+        private final String playerId;
+        private final String resumeToken = newResumeToken();
+        private volatile Connection<ParsedMessage> connection;
+        private final SnapshotRate snapshotRate = new SnapshotRate(snapshotPolicy);
+        private final StateHistory history = new StateHistory(MAX_REWIND_MILLIS, AHEAD_TOLERANCE_MILLIS);
+
+        private volatile String roomId;
+        // Name to rank accepted runs under; null until JOIN gives a valid one.
+        private volatile String playerName;
+        // Course of the last START this player got; only runs on it are verified.
+        private volatile Course issuedCourse;
+        // Best score the server accepted since the room's START.
+        private volatile int matchScore;
+        // Guarded by the handler: waiting for RESUME since suspendedAtNanos, or gone for good.
+        private boolean suspended;
+        private long suspendedAtNanos;
+        private boolean retired;
+
+        private ClientHandler(Connection<ParsedMessage> connection) {
+            this.playerId = connection.id();
+            this.connection = connection;
+        }
+
+        @Override
+        public void onMessage(ParsedMessage message) {
             switch (message.command()) {
                 case "JOIN" -> {
                     // JOIN acknowledged by WELCOME sent right after connect.
+                    if (message.size() > 0 && !message.arg(0).isBlank()) {
+                        if (Leaderboard.isValidName(message.arg(0))) {
+                            playerName = message.arg(0);
+                        } else {
+                            send(MessageParser.serialize("ERROR", "Player names are 1-"
+                                + Leaderboard.MAX_NAME_LENGTH + " letters, digits, _ or -"));
+                        }
+                    }
                 }
+                case "LEAVE" -> disconnect(this);
                 case "CREATE_ROOM" -> handleCreateRoom(this);
                 case "JOIN_ROOM" -> handleJoinRoom(this, message);
                 case "JUMP" -> {
@@ -315,7 +878,55 @@ public class OnlineServer {
                 case "STATE" -> {
                     if (roomId != null) {
                         PlayerState state = MessageParser.parseState(message);
-                        onStateUpdate(this, new PlayerState(playerId, state.x(), state.y(), state.score()));
+                        int score = history.judge(
+                            MessageParser.parseStateTick(message), state.y(), state.score(), serverTimeMillis());
+                        stateVerdicts.get(history.lastVerdict().name()).increment();
+                        if (score > matchScore) {
+                            matchScore = score;
+                        }
+                        onStateUpdate(this, new PlayerState(playerId, state.x(), state.y(), score));
+                    }
+                }
+                case "SUBMIT_RUN" -> submitRun(message);
+                case "GET_GHOST" -> {
+                    BestRun best = bestRun.get();
+                    send(best == null ? MessageParser.ghost(null, 0) : MessageParser.ghost(best.log(), best.score()));
+                }
+                case "GET_LEADERBOARD" -> {
+                    Leaderboard board = leaderboard;
+                    if (board != null && message.size() > 0) {
+                        int limit;
+                        try {
+                            limit = Math.max(0, Math.min(LEADERBOARD_MAX_ROWS, Integer.parseInt(message.arg(0))));
+                        } catch (NumberFormatException e) {
+                            send(MessageParser.serialize("ERROR", "Invalid leaderboard limit"));
+                            return;
+                        }
+                        send(MessageParser.leaderboard(board.size(), board.top(limit)));
+                    }
+                }
+                case "GET_RANK" -> {
+                    Leaderboard board = leaderboard;
+                    if (board != null && message.size() > 0) {
+                        send(MessageParser.rank(message.arg(0), board.standing(message.arg(0))));
+                    }
+                }
+                case "PING" -> {
+                    if (message.size() > 0) {
+                        try {
+                            send(MessageParser.pong(Long.parseLong(message.arg(0)), serverTimeMillis()));
+                        } catch (NumberFormatException e) {
+                            send(MessageParser.serialize("ERROR", "Invalid ping time"));
+                        }
+                    }
+                }
+                case "PONG" -> {
+                    if (message.size() > 0) {
+                        try {
+                            onPong(Long.parseLong(message.arg(0)));
+                        } catch (NumberFormatException e) {
+                            send(MessageParser.serialize("ERROR", "Invalid pong time"));
+                        }
                     }
                 }
                 default -> {
@@ -324,29 +935,186 @@ public class OnlineServer {
             }
         }
 
-        private void send(String message) {
-            if (!connected) {
+        @Override
+        public void onClosed(Throwable cause) {
+            connectionClosed(connection, cause);
+        }
+
+        private void connectionClosed(Connection<ParsedMessage> closed, Throwable cause) {
+            boolean hold;
+            synchronized (this) {
+                if (closed != connection || retired) {
+                    // Replaced by a resumed connection, or already removed.
+                    return;
+                }
+                hold = running && RESUME_GRACE_MILLIS > 0L && roomId != null && isConnectionLoss(cause);
+                if (hold) {
+                    suspended = true;
+                    suspendedAtNanos = System.nanoTime();
+                }
+            }
+            if (cause != null && running) {
+                System.err.println("Client " + playerId + " error: " + cause.getMessage());
+            }
+            if (!hold) {
+                disconnect(this);
                 return;
             }
-            writer.println(message);
-            if (writer.checkError()) {
+            sessionEvents.get("suspended").increment();
+            try {
+                snapshotScheduler.schedule(() -> expire(closed), RESUME_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
                 disconnect(this);
             }
         }
 
-        private void close() {
-            connected = false;
+        // Only a lost link is worth holding; a client cut off for flooding or bad messages is not let back in.
+        private static boolean isConnectionLoss(Throwable cause) {
+            return cause == null
+                || cause instanceof IOException
+                && !(cause instanceof IngressLimiter.FloodException)
+                && !(cause instanceof Connection.MalformedMessageException);
+        }
+
+        private void expire(Connection<ParsedMessage> lost) {
+            synchronized (this) {
+                if (!suspended || connection != lost) {
+                    return;
+                }
+                retired = true;
+            }
+            sessionEvents.get("expired").increment();
+            disconnect(this);
+        }
+
+        /**
+         * Takes over {@code replacement} as this session's connection.
+         *
+         * @return false if the session has already been removed
+         */
+        private boolean attach(Connection<ParsedMessage> replacement) {
+            Connection<ParsedMessage> previous;
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                previous = connection;
+                connection = replacement;
+                if (suspended) {
+                    resumeGapNanos.recordSince(suspendedAtNanos);
+                }
+                suspended = false;
+            }
+            // The old socket may not have noticed it is dead yet.
+            previous.closeNow();
+            sessionEvents.get("resumed").increment();
+            return true;
+        }
+
+        private synchronized void retire() {
+            retired = true;
+        }
+
+        private void send(String message) {
+            connection.send(message);
+        }
+
+        private void submitRun(ParsedMessage message) {
+            RunSubmission submission;
             try {
-                socket.close();
-            } catch (IOException ignored) {
-                // ignored
+                submission = MessageParser.parseSubmitRun(message);
+            } catch (IllegalArgumentException e) {
+                send(MessageParser.runResult(ReplayVerifier.Outcome.MALFORMED.name(), 0));
+                return;
+            }
+            String submittedRoomId = roomId;
+            Course issued = issuedCourse;
+            if (issued == null) {
+                send(MessageParser.runResult(ReplayVerifier.Outcome.WRONG_COURSE.name(), 0));
+                return;
+            }
+            replayVerifier.submit(submission.log(), submission.claimedScore(), issued.seed()).thenAccept(result -> {
+                send(MessageParser.runResult(result.outcome().name(), result.verifiedScore()));
+                record(submittedRoomId, issued, submission, result);
+            });
+        }
+
+        // Runs that replayed to the end are kept with the score the server reached.
+        private void record(String submittedRoomId, Course issued, RunSubmission submission,
+                            ReplayVerifier.Result result) {
+            if (result.accepted()) {
+                offerBestRun(submission.log(), result.verifiedScore());
+                rank(issued, submission.log().seed(), result.verifiedScore());
+            }
+            if (result.outcome() != ReplayVerifier.Outcome.ACCEPTED
+                && result.outcome() != ReplayVerifier.Outcome.SCORE_MISMATCH) {
+                return;
+            }
+            ReplayRecorder recorder = replayRecorder;
+            if (recorder != null) {
+                recorder.record(submittedRoomId, playerId, result.verifiedScore(), result.ticks(), submission.log());
+            }
+            ReplayArchive archive = replayArchive;
+            ExecutorService writer = archiveWriter;
+            if (archive != null && writer != null) {
+                long recordedAtMillis = System.currentTimeMillis();
+                try {
+                    writer.execute(() -> archive(archive, submittedRoomId, result, submission, recordedAtMillis));
+                } catch (RejectedExecutionException e) {
+                    // The server is stopping.
+                }
+            }
+        }
+
+        private void archive(ReplayArchive archive, String submittedRoomId, ReplayVerifier.Result result,
+                             RunSubmission submission, long recordedAtMillis) {
+            try {
+                archive.append(submittedRoomId, playerId, result.verifiedScore(), result.ticks(), submission.log(),
+                    recordedAtMillis);
+                replaysArchived.increment();
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not archive run of " + playerId + ": " + e.getMessage());
             }
         }
+
+        /**
+         * Ranks a verified run, but only one flown on the course the room
+         * issued at START: a run on a course of the client's choosing, say
+         * an offline autopilot's, never reaches the board.
+         */
+        private void rank(Course issued, long runSeed, int verifiedScore) {
+            Leaderboard board = leaderboard;
+            String name = playerName;
+            if (board == null || name == null || issued == null || runSeed != issued.seed()) {
+                return;
+            }
+            try {
+                board.submit(name, verifiedScore);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Could not rank run of " + name + ": " + e.getMessage());
+            }
+        }
+
+        private void onPong(long pingServerMillis) {
+            long sample = serverTimeMillis() - pingServerMillis;
+            if (sample < 0L) {
+                return;
+            }
+            rttNanos.record(TimeUnit.MILLISECONDS.toNanos(sample));
+            long smoothed = snapshotRate.rttMillis();
+            snapshotRate.setRttMillis(smoothed < 0L ? sample : (7L * smoothed + sample) / 8L);
+        }
     }
 
+    /**
+     * Usage: OnlineServer [port] [adminPort]. The admin endpoint only listens on loopback.
+     */
     public static void main(String[] args) throws Exception {
         int selectedPort = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
         OnlineServer server = new OnlineServer(selectedPort);
+        if (args.length > 1) {
+            server.enableAdmin(new InetSocketAddress("127.0.0.1", Integer.parseInt(args[1])));
+        }
         server.start();
 
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
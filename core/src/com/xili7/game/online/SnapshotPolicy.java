@@ -0,0 +1,38 @@
+package com.xili7.game.online;
+
+/**
+ * Bounds for the per-client BULK_STATE rate chosen by {@link OnlineServer}.
+ *
+ * Every client starts at {@code initialIntervalMillis}. Healthy links are
+ * sped up to {@code minIntervalMillis} (which is also the snapshot tick),
+ * congested ones slowed down to {@code maxIntervalMillis}; clients whose
+ * RTT exceeds {@code highRttMillis} are never sped up past the initial rate.
+ *
+ * Overridable with system properties {@code flappy.snapshot.minMillis},
+ * {@code .initialMillis}, {@code .maxMillis} and {@code .highRttMillis}.
+ */
+public record SnapshotPolicy(long minIntervalMillis, long initialIntervalMillis, long maxIntervalMillis,
+                             long highRttMillis) {
+    private static final String PROPERTY_PREFIX = "flappy.snapshot.";
+
+    public SnapshotPolicy {
+        if (minIntervalMillis < 1 || initialIntervalMillis < minIntervalMillis
+            || maxIntervalMillis < initialIntervalMillis) {
+            throw new IllegalArgumentException("Snapshot intervals must satisfy 1 <= min <= initial <= max: "
+                + minIntervalMillis + "/" + initialIntervalMillis + "/" + maxIntervalMillis);
+        }
+    }
+
+    public static SnapshotPolicy defaults() {
+        return new SnapshotPolicy(50L, 100L, 500L, 200L);
+    }
+
+    public static SnapshotPolicy fromSystemProperties(SnapshotPolicy base) {
+        return new SnapshotPolicy(
+            Long.getLong(PROPERTY_PREFIX + "minMillis", base.minIntervalMillis()),
+            Long.getLong(PROPERTY_PREFIX + "initialMillis", base.initialIntervalMillis()),
+            Long.getLong(PROPERTY_PREFIX + "maxMillis", base.maxIntervalMillis()),
+            Long.getLong(PROPERTY_PREFIX + "highRttMillis", base.highRttMillis())
+        );
+    }
+}
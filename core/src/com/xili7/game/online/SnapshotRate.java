@@ -0,0 +1,123 @@
+package com.xili7.game.online;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-client BULK_STATE interval and detail level.
+ *
+ * Inputs, sampled whenever a snapshot is due:
+ * - outbound queue depth: lines still queued from earlier sends mean the
+ *   link is not keeping up, and the interval doubles
+ * - drain throughput: bytes written while the queue stayed backlogged
+ *   (congested at the start of the window, still non-empty at its end)
+ *   approximate link capacity; snapshots may use at most half of it
+ * - RTT ({@link #setRttMillis}), when known: high-latency links are not
+ *   sped up past the initial rate
+ *
+ * After enough consecutive sends with an empty queue the interval shrinks
+ * by one tick. Intervals above the initial one use {@link Detail#REDUCED}.
+ *
+ * Sampling and scheduling run on the snapshot thread only; the accessors
+ * may be read from anywhere.
+ */
+final class SnapshotRate {
+    enum Detail {
+        /** Every member, full precision. */
+        FULL,
+        /** Other members only, coordinates rounded to 0.1. */
+        REDUCED
+    }
+
+    private static final int CONGESTED_DEPTH = 4;
+    private static final int HEALTHY_SENDS_TO_SPEED_UP = 20;
+    private static final double LINK_SHARE = 0.5;
+    private static final double CAPACITY_SMOOTHING = 0.25;
+
+    private final SnapshotPolicy policy;
+    private final long toleranceNanos;
+
+    private volatile long intervalMillis;
+    private volatile Detail detail = Detail.FULL;
+    private volatile long rttMillis = -1L;
+    private volatile double capacityBytesPerSecond = -1d;
+
+    private long nextDueNanos;
+    private long lastSampleNanos;
+    private long lastBytesWritten;
+    private int lastDepth;
+    private int healthySends;
+
+    SnapshotRate(SnapshotPolicy policy) {
+        this.policy = policy;
+        this.intervalMillis = policy.initialIntervalMillis();
+        // Ticks fire every minIntervalMillis; accept one arriving up to half a tick early.
+        this.toleranceNanos = TimeUnit.MILLISECONDS.toNanos(policy.minIntervalMillis()) / 2;
+    }
+
+    long intervalMillis() {
+        return intervalMillis;
+    }
+
+    Detail detail() {
+        return detail;
+    }
+
+    long rttMillis() {
+        return rttMillis;
+    }
+
+    /**
+     * Latest round-trip estimate for this client, or a negative value if unknown.
+     */
+    void setRttMillis(long rttMillis) {
+        this.rttMillis = rttMillis;
+    }
+
+    boolean isDue(long nowNanos) {
+        return nowNanos - nextDueNanos >= 0L;
+    }
+
+    /**
+     * Updates the estimates before a due snapshot of {@code snapshotBytes} is
+     * sent and returns the detail level to send it with.
+     */
+    Detail beforeSend(long nowNanos, int outboundDepth, long bytesWritten, int snapshotBytes) {
+        long elapsed = nowNanos - lastSampleNanos;
+        if (lastSampleNanos != 0L && lastDepth > CONGESTED_DEPTH && outboundDepth > 0 && elapsed > 0L) {
+            // The queue was backlogged for the whole window, so the drain rate is the link rate.
+            double observed = (bytesWritten - lastBytesWritten) * 1e9 / elapsed;
+            double previous = capacityBytesPerSecond;
+            capacityBytesPerSecond = previous < 0d ? observed : previous + CAPACITY_SMOOTHING * (observed - previous);
+        }
+        lastSampleNanos = nowNanos;
+        lastBytesWritten = bytesWritten;
+        lastDepth = outboundDepth;
+
+        long interval = intervalMillis;
+        double capacity = capacityBytesPerSecond;
+        if (outboundDepth > CONGESTED_DEPTH
+            || (capacity >= 0d && snapshotBytes * 1000d / interval > capacity * LINK_SHARE)) {
+            healthySends = 0;
+            interval = Math.min(policy.maxIntervalMillis(), interval * 2);
+        } else if (outboundDepth == 0 && ++healthySends >= HEALTHY_SENDS_TO_SPEED_UP) {
+            healthySends = 0;
+            interval -= policy.minIntervalMillis();
+            // The link has drained: forget the old capacity estimate.
+            capacityBytesPerSecond = -1d;
+        }
+        interval = Math.max(interval, floorMillis());
+
+        intervalMillis = interval;
+        detail = interval > policy.initialIntervalMillis() ? Detail.REDUCED : Detail.FULL;
+        return detail;
+    }
+
+    void sent(long nowNanos) {
+        nextDueNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(intervalMillis) - toleranceNanos;
+    }
+
+    private long floorMillis() {
+        long rtt = rttMillis;
+        return rtt > policy.highRttMillis() ? policy.initialIntervalMillis() : policy.minIntervalMillis();
+    }
+}
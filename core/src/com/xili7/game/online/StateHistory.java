@@ -0,0 +1,222 @@
+package com.xili7.game.online;
+
+import com.xili7.game.sim.Course;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
+
+/**
+ * Recent bird states of one player, used to judge each STATE at the course
+ * tick the client reported rather than at the moment it arrived.
+ *
+ * The server's idea of the player's current tick is anchored at the first
+ * STATE of a run and advanced with the server clock. A reported tick is
+ * rewound to where the client saw it, but never more than
+ * {@code maxRewindTicks} into the past (beyond that, lag is not
+ * compensated) and never past {@code aheadTicks} into the future (a client
+ * running its course too fast). The score may not exceed
+ * {@link CourseGeometry#maxScoreAt(long)} at the reported tick (capped at
+ * the ahead limit), may not grow after the bird was seen below the ground or,
+ * once the room's {@link Course} is known, inside a pipe at its reported
+ * tick, and never decreases within a run. A run ends when the reported tick drops
+ * back to the start of the course.
+ *
+ * The recorded heights are rewound as well: between the previous STATE and
+ * a new one, the bird's path is taken to be the straight line between the
+ * two heights, and if that line runs into a pipe at any tick in between
+ * (with room for how far a real flight can bend away from it), the bird is
+ * judged dead from the previous STATE on. Sparse STATEs that straddle a
+ * pipe therefore cannot score it. Gaps longer than {@code MAX_SWEEP_TICKS}
+ * are not swept, as the path between them is not known closely enough.
+ *
+ * Entries live in preallocated primitive arrays used as a ring, so
+ * recording and judging allocate nothing. Accessed only from the player's
+ * read thread.
+ */
+final class StateHistory {
+    /** Outcome of the last {@link #judge} call. */
+    enum Verdict {
+        ACCEPTED,
+        /** The claimed score was capped. */
+        SCORE_CAPPED,
+        /** The tick was older than the rewind window and was judged at the window edge. */
+        REWIND_CLAMPED,
+        /** The tick was ahead of the server clock and was judged at the tolerance edge. */
+        AHEAD_CLAMPED
+    }
+
+    private static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    // The first STATE of a run follows the first tap; later anchors are not believed.
+    private static final long RUN_START_TOLERANCE_TICKS = 200L;
+    private static final long MAX_SWEEP_TICKS = 20L;
+    // Widest spread of vertical speeds within one sweep: from a flap down to a fall from the top of the world.
+    private static final float SPEED_SPREAD = Simulation.FLAP_VELOCITY
+        + (float) Math.sqrt(2.0 * Simulation.GRAVITY * (CourseGeometry.WORLD_HEIGHT - CourseGeometry.GROUND_Y));
+
+    private final long maxRewindTicks;
+    private final long aheadTicks;
+
+    private volatile Course course;
+
+    private final long[] ticks = new long[CAPACITY];
+    private final long[] reportedTicks = new long[CAPACITY];
+    private final float[] ys = new float[CAPACITY];
+    private final int[] scores = new int[CAPACITY];
+    private int size;
+    private int head;
+
+    private long anchorTick = -1L;
+    private long anchorMillis;
+    private long lastTick = -1L;
+    private long deathTick = -1L;
+    private int acceptedScore;
+    private long judgedTick;
+    private Verdict verdict = Verdict.ACCEPTED;
+
+    StateHistory(long maxRewindMillis, long aheadMillis) {
+        this.maxRewindTicks = Math.max(0L, maxRewindMillis / CourseGeometry.STEP_MILLIS);
+        this.aheadTicks = Math.max(0L, aheadMillis / CourseGeometry.STEP_MILLIS);
+    }
+
+    /**
+     * Records a STATE and returns the score the server accepts for it.
+     *
+     * @param tick course tick reported by the client, or -1 if it sent none
+     *             (it is then judged at the server's estimate)
+     */
+    int judge(long tick, float y, int claimedScore, long nowMillis) {
+        boolean newRun = anchorTick < 0L
+            || (tick >= 0L
+                ? tick < lastTick && tick <= RUN_START_TOLERANCE_TICKS
+                : claimedScore < acceptedScore);
+        if (newRun) {
+            startRun(tick, nowMillis);
+        }
+
+        long expected = expectedTick(nowMillis);
+        long reported = tick >= 0L ? tick : expected;
+        long judged = reported;
+        verdict = Verdict.ACCEPTED;
+        if (judged < expected - maxRewindTicks) {
+            judged = expected - maxRewindTicks;
+            verdict = Verdict.REWIND_CLAMPED;
+        } else if (judged > expected + aheadTicks) {
+            judged = expected + aheadTicks;
+            verdict = Verdict.AHEAD_CLAMPED;
+        }
+        judgedTick = judged;
+
+        if (deathTick < 0L && sweptIntoPipe(tick, y)) {
+            deathTick = ticks[(head - 1) & MASK];
+        }
+        int limit = CourseGeometry.maxScoreAt(Math.min(reported, expected + aheadTicks));
+        if (deathTick >= 0L && deathTick <= judged) {
+            limit = Math.min(limit, scoreAt(deathTick));
+        }
+        int score = Math.max(acceptedScore, Math.min(claimedScore, limit));
+        if (score < claimedScore && verdict == Verdict.ACCEPTED) {
+            verdict = Verdict.SCORE_CAPPED;
+        }
+
+        if (deathTick < 0L && (y < CourseGeometry.GROUND_Y || insidePipe(tick, y))) {
+            deathTick = judged;
+        }
+        record(judged, tick, y, score);
+        lastTick = reported;
+        acceptedScore = score;
+        return score;
+    }
+
+    /**
+     * Sets the course the player flies from now on (sent to it in START).
+     * May be called from any thread.
+     */
+    void setCourse(Course course) {
+        this.course = course;
+    }
+
+    Verdict lastVerdict() {
+        return verdict;
+    }
+
+    /**
+     * Tick at which the last STATE was judged.
+     */
+    long lastJudgedTick() {
+        return judgedTick;
+    }
+
+    // A STATE's y belongs to the tick the client reported, so that tick is checked, not the judged one.
+    private boolean insidePipe(long tick, float y) {
+        Course current = course;
+        return current != null && tick >= 0L && Simulation.hitsPipe(current, tick, y);
+    }
+
+    /**
+     * Whether the straight path from the previous STATE's height to {@code y}
+     * certainly hits a pipe between the two reported ticks. A real flight
+     * strays from that line by at most a quarter of its speed spread times
+     * the gap, so a tick only counts when the whole band around the line is
+     * inside the pipe.
+     */
+    private boolean sweptIntoPipe(long tick, float y) {
+        Course current = course;
+        if (current == null || tick < 0L || size == 0) {
+            return false;
+        }
+        int previous = (head - 1) & MASK;
+        long fromTick = reportedTicks[previous];
+        long span = tick - fromTick;
+        if (fromTick < 0L || span <= 1L || span > MAX_SWEEP_TICKS) {
+            return false;
+        }
+        float fromY = ys[previous];
+        float slack = SPEED_SPREAD * span * CourseGeometry.STEP_SECONDS / 4f;
+        for (long step = 1L; step < span; step++) {
+            float onLine = fromY + (y - fromY) * step / span;
+            if (Simulation.hitsPipe(current, fromTick + step, onLine - slack)
+                && Simulation.hitsPipe(current, fromTick + step, onLine + slack)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int scoreAt(long tick) {
+        int index = indexAt(tick);
+        return index < 0 ? acceptedScore : scores[index];
+    }
+
+    private int indexAt(long tick) {
+        for (int i = 0; i < size; i++) {
+            int index = (head - 1 - i) & MASK;
+            if (ticks[index] <= tick) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private long expectedTick(long nowMillis) {
+        return anchorTick + (nowMillis - anchorMillis) / CourseGeometry.STEP_MILLIS;
+    }
+
+    private void startRun(long tick, long nowMillis) {
+        anchorTick = Math.min(Math.max(tick, 0L), RUN_START_TOLERANCE_TICKS);
+        anchorMillis = nowMillis;
+        lastTick = -1L;
+        deathTick = -1L;
+        acceptedScore = 0;
+        size = 0;
+        head = 0;
+    }
+
+    private void record(long tick, long reportedTick, float y, int score) {
+        ticks[head] = tick;
+        reportedTicks[head] = reportedTick;
+        ys[head] = y;
+        scores[head] = score;
+        head = (head + 1) & MASK;
+        size = Math.min(size + 1, CAPACITY);
+    }
+}
@@ -0,0 +1,83 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.sim.Simulation;
+
+/**
+ * A recorded run played back alongside a live one on the same course, for
+ * racing against.
+ *
+ * The ghost is its own headless {@link Simulation} fed the recorded flaps,
+ * kept in step with the player's tick by {@link #advanceTo(long)}: a frame
+ * costs the one or two course steps that fit in it, and nothing is sent
+ * over the network. Once the recorded bird dies the ghost is gone.
+ *
+ * Not thread-safe; a ghost belongs to the render thread.
+ */
+public final class Ghost {
+    private final InputLog log;
+    private final int score;
+
+    private Simulation simulation;
+    private int nextFlap;
+
+    /**
+     * @param log   the run to replay; not copied, so it must not change afterwards
+     * @param score the score the run reached
+     */
+    public Ghost(InputLog log, int score) {
+        this.log = log;
+        this.score = score;
+        restart();
+    }
+
+    /**
+     * The course the ghost flies; the player's run has to use it too.
+     */
+    public long seed() {
+        return log.seed();
+    }
+
+    /**
+     * Score the recorded run reached.
+     */
+    public int score() {
+        return score;
+    }
+
+    /**
+     * Rewinds to the start, for the player's next attempt.
+     */
+    public void restart() {
+        simulation = new Simulation(log.seed());
+        simulation.start();
+        nextFlap = 0;
+    }
+
+    /**
+     * Plays the recorded run forward to {@code tick}; ticks already passed are ignored.
+     */
+    public void advanceTo(long tick) {
+        while (simulation.isAlive() && simulation.tick() < tick) {
+            boolean flap = nextFlap < log.size() && log.flapTick(nextFlap) == simulation.tick();
+            if (flap) {
+                nextFlap++;
+            }
+            simulation.step(flap);
+        }
+    }
+
+    public boolean isAlive() {
+        return simulation.isAlive();
+    }
+
+    public float birdY() {
+        return simulation.birdY();
+    }
+
+    /**
+     * The ghost's score so far.
+     */
+    public int currentScore() {
+        return simulation.score();
+    }
+}
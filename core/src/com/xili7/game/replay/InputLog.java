@@ -0,0 +1,115 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.sim.Simulation;
+
+import java.util.Arrays;
+
+/**
+ * Everything needed to replay one run: the course seed and the course ticks
+ * at which the player flapped.
+ *
+ * A flap recorded at tick {@code t} is applied by the step that advances the
+ * simulation from {@code t} to {@code t + 1}. Replaying starts the
+ * simulation with {@link Simulation#start()}, which makes a run opened by a
+ * tap and one opened by a server START replay the same way.
+ *
+ * Appending is amortised O(1); a log sized for the longest run and
+ * {@link #reset} between runs never allocates. Not thread-safe.
+ */
+public final class InputLog {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long seed;
+    private long[] flapTicks;
+    private int size;
+
+    public InputLog(long seed) {
+        this(seed, INITIAL_CAPACITY);
+    }
+
+    public InputLog(long seed, int initialCapacity) {
+        this(seed, new long[Math.max(1, initialCapacity)], 0);
+    }
+
+    private InputLog(long seed, long[] flapTicks, int size) {
+        this.seed = seed;
+        this.flapTicks = flapTicks;
+        this.size = size;
+    }
+
+    /**
+     * Wraps ticks received from elsewhere; they must be strictly increasing.
+     */
+    public static InputLog of(long seed, long[] flapTicks) {
+        for (int i = 0; i < flapTicks.length; i++) {
+            if (flapTicks[i] < 0L || (i > 0 && flapTicks[i] <= flapTicks[i - 1])) {
+                throw new IllegalArgumentException("Flap ticks must be increasing and non-negative at index " + i);
+            }
+        }
+        return new InputLog(seed, flapTicks.clone(), flapTicks.length);
+    }
+
+    /**
+     * An independent copy holding just the recorded flaps.
+     */
+    public InputLog copy() {
+        return new InputLog(seed, Arrays.copyOf(flapTicks, size), size);
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long flapTick(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return flapTicks[index];
+    }
+
+    /**
+     * Empties the log for a new run on the course {@code seed}, keeping its storage.
+     */
+    public void reset(long seed) {
+        this.seed = seed;
+        size = 0;
+    }
+
+    /**
+     * Records a flap applied at {@code tick}. Several taps within one step
+     * count as one flap.
+     */
+    public void recordFlap(long tick) {
+        if (size > 0 && tick <= flapTicks[size - 1]) {
+            return;
+        }
+        if (size == flapTicks.length) {
+            flapTicks = Arrays.copyOf(flapTicks, size * 2);
+        }
+        flapTicks[size++] = tick;
+    }
+
+    /**
+     * Replays the log on a fresh simulation until the bird dies, the log
+     * runs past its death, or {@code maxTicks} steps have been taken.
+     *
+     * @return the simulation in its final state
+     */
+    public Simulation replay(long maxTicks) {
+        Simulation simulation = new Simulation(seed);
+        simulation.start();
+        int next = 0;
+        while (simulation.isAlive() && simulation.tick() < maxTicks) {
+            boolean flap = next < size && flapTicks[next] == simulation.tick();
+            if (flap) {
+                next++;
+            }
+            simulation.step(flap);
+        }
+        return simulation;
+    }
+}
@@ -0,0 +1,516 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.sim.Simulation;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Archive of recorded runs for the server's disk: a directory of
+ * fixed-size segment files, each memory-mapped, so replays are read
+ * straight from the page cache instead of being loaded onto the heap.
+ *
+ * A segment starts with {@link #SEGMENT_MAGIC} and the length of its
+ * committed part, followed by entries:
+ * <pre>
+ *   int32   entry length (bytes after this field)
+ *   int64   recorded at (epoch millis)
+ *   int32   score
+ *   int64   ticks survived
+ *   int32   keyframe interval, in ticks
+ *   int32   keyframe count
+ *   per keyframe: float bird y, float velocity, int32 score, int32 index of the next flap
+ *   string  room id
+ *   string  player id
+ *   a {@link ReplayCodec} record
+ * </pre>
+ * Keyframe {@code k} is the simulation state after {@code (k + 1) * interval}
+ * ticks, so {@link Entry#seek(long)} restores the nearest one and replays at
+ * most one interval of steps instead of the whole run.
+ *
+ * One archive instance writes, any number of instances (in this or other
+ * processes) read. The writer fills an entry past the committed length,
+ * forces it to disk and only then publishes the new length with a release
+ * store (and forces that too); readers load it with an acquire, so they
+ * never see a partial entry, and a crash at any point leaves the entry
+ * either whole or uncommitted. Appending therefore waits for the disk:
+ * call it from a thread of its own, not one that serves players. Readers of another process pick up new entries with
+ * {@link #refresh()}.
+ *
+ * Lookups by player, room, recording time and score go through an index
+ * kept in memory (a few dozen bytes per run) and rebuilt from the entry
+ * headers when an archive is opened. Entries returned by {@link #entry(int)}
+ * stay valid and are safe to read from any thread.
+ */
+public final class ReplayArchive implements AutoCloseable {
+    public static final int SEGMENT_MAGIC = 0x46424131; // "FBA1"
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    /** Five seconds of course time. */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 1000;
+
+    private static final int COMMITTED_OFFSET = Integer.BYTES;
+    private static final int SEGMENT_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int FIXED_ENTRY_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+    private static final int KEYFRAME_BYTES = 4 * Integer.BYTES;
+    private static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private final Path directory;
+    private final boolean writable;
+    private final int segmentBytes;
+    private final int keyframeInterval;
+
+    // Guarded by this; segments is only ever appended to.
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private int scannedEnd;
+    // First segment that may hold entries not forced by flush().
+    private int unflushed;
+    private final Ids ids = new Ids();
+
+    private ReplayArchive(Path directory, boolean writable, int segmentBytes, int keyframeInterval) {
+        this.directory = directory;
+        this.writable = writable;
+        this.segmentBytes = segmentBytes;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Opens (or creates) an archive for appending.
+     */
+    public static ReplayArchive openForWriting(Path directory, int segmentBytes, int keyframeInterval)
+        throws IOException {
+        if (segmentBytes <= SEGMENT_HEADER_BYTES || keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Bad archive settings: segmentBytes=" + segmentBytes
+                + " keyframeInterval=" + keyframeInterval);
+        }
+        Files.createDirectories(directory);
+        ReplayArchive archive = new ReplayArchive(directory, true, segmentBytes, keyframeInterval);
+        archive.refresh();
+        return archive;
+    }
+
+    public static ReplayArchive openForWriting(Path directory) throws IOException {
+        return openForWriting(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Opens an archive another instance may be appending to; call
+     * {@link #refresh()} to see what it has committed since.
+     */
+    public static ReplayArchive openForReading(Path directory) throws IOException {
+        ReplayArchive archive = new ReplayArchive(directory, false, 0, DEFAULT_KEYFRAME_INTERVAL);
+        archive.refresh();
+        return archive;
+    }
+
+    /**
+     * Maps segments created since the last call and indexes the entries
+     * committed since then.
+     */
+    public synchronized void refresh() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(file -> file.getFileName().toString().matches("segment-\\d{6}\\.fra"))
+                .sorted()
+                .toList();
+        }
+        for (int i = segments.size(); i < files.size(); i++) {
+            segments.add(map(files.get(i)));
+        }
+        for (int segment = Math.max(0, ids.lastSegment()); segment < segments.size(); segment++) {
+            scan(segment);
+        }
+    }
+
+    /**
+     * Appends one run, working out its keyframes by replaying it.
+     *
+     * @return the id of the new entry
+     * @throws IllegalArgumentException if the entry is larger than a segment
+     */
+    public int append(String roomId, String playerId, int score, long ticks, InputLog log, long recordedAtMillis)
+        throws IOException {
+        if (!writable) {
+            throw new IllegalStateException("Archive opened for reading: " + directory);
+        }
+        // The replay is the expensive part and touches nothing shared; only the copy in is serialised.
+        ByteBuffer keyframes = keyframes(log, ticks);
+        synchronized (this) {
+            long recordedAt = Math.max(recordedAtMillis, ids.size() == 0 ? Long.MIN_VALUE : ids.lastRecordedAt());
+            if (segments.isEmpty()) {
+                roll();
+            }
+            for (boolean fresh = false; ; fresh = true) {
+                MappedByteBuffer segment = segments.get(segments.size() - 1);
+                int start = committed(segment);
+                try {
+                    ByteBuffer out = segment.duplicate().position(start);
+                    writeEntry(out, roomId, playerId, score, ticks, log, recordedAt, keyframes);
+                    segment.force(start, out.position() - start);
+                    INT_VIEW.setRelease(segment, COMMITTED_OFFSET, out.position());
+                    segment.force(COMMITTED_OFFSET, Integer.BYTES);
+                    scan(segments.size() - 1);
+                    return ids.size() - 1;
+                } catch (BufferOverflowException e) {
+                    if (fresh || start == SEGMENT_HEADER_BYTES) {
+                        throw new IllegalArgumentException("Replay too large for a " + segmentBytes + " byte segment");
+                    }
+                    roll();
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    public synchronized Entry entry(int id) {
+        long location = ids.location(id);
+        return new Entry(segments.get((int) (location >>> 32)), (int) location);
+    }
+
+    /**
+     * Ids of the player's runs, oldest first.
+     */
+    public synchronized int[] byPlayer(String playerId) {
+        return ids.byPlayer.getOrDefault(playerId, Ids.NONE).toArray();
+    }
+
+    /**
+     * Ids of the runs played in a room, oldest first.
+     */
+    public synchronized int[] byRoom(String roomId) {
+        return ids.byRoom.getOrDefault(roomId, Ids.NONE).toArray();
+    }
+
+    /**
+     * First id recorded at or after {@code epochMillis}, or {@link #size()}
+     * if none; ids are in recording order, so a time range is an id range.
+     */
+    public synchronized int firstRecordedAtOrAfter(long epochMillis) {
+        int low = 0;
+        int high = ids.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ids.recordedAt[middle] < epochMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Ids of the {@code limit} highest scores, best first; equal scores in
+     * recording order.
+     */
+    public synchronized int[] topScores(int limit) {
+        int[] top = new int[Math.min(limit, ids.size())];
+        int found = 0;
+        for (IntList bucket : ids.byScore.descendingMap().values()) {
+            for (int i = 0; i < bucket.size && found < top.length; i++) {
+                top[found++] = bucket.values[i];
+            }
+            if (found == top.length) {
+                break;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Forces everything written since the last flush to disk, in every
+     * segment rolled over since.
+     */
+    public synchronized void flush() {
+        if (!writable || segments.isEmpty()) {
+            return;
+        }
+        for (int segment = unflushed; segment < segments.size(); segment++) {
+            segments.get(segment).force();
+        }
+        unflushed = segments.size() - 1;
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+    }
+
+    /**
+     * One archived run, read in place from its mapped segment.
+     */
+    public static final class Entry {
+        private final ByteBuffer buffer;
+        private final int keyframeCount;
+        private final int idsOffset;
+
+        private Entry(MappedByteBuffer segment, int offset) {
+            int length = segment.getInt(offset);
+            this.buffer = segment.slice(offset + Integer.BYTES, length).asReadOnlyBuffer();
+            this.keyframeCount = buffer.getInt(FIXED_ENTRY_BYTES - Integer.BYTES);
+            this.idsOffset = FIXED_ENTRY_BYTES + keyframeCount * KEYFRAME_BYTES;
+        }
+
+        public long recordedAtMillis() {
+            return buffer.getLong(0);
+        }
+
+        public int score() {
+            return buffer.getInt(Long.BYTES);
+        }
+
+        public long ticks() {
+            return buffer.getLong(Long.BYTES + Integer.BYTES);
+        }
+
+        public String roomId() {
+            return ReplayCodec.getString(buffer.duplicate().position(idsOffset));
+        }
+
+        public String playerId() {
+            return ReplayCodec.getString(skipString(buffer.duplicate().position(idsOffset)));
+        }
+
+        /**
+         * The run as a {@link ReplayCodec} record, a read-only view of the
+         * mapped file (no copy), e.g. to send to a client as is.
+         */
+        public ByteBuffer record() {
+            ByteBuffer in = skipString(skipString(buffer.duplicate().position(idsOffset)));
+            return in.slice();
+        }
+
+        public ReplayCodec.RecordedRun run() {
+            ReplayCodec.RecordedRun run = ReplayCodec.decode(record());
+            if (run == null) {
+                throw new IllegalStateException("Corrupt archived replay");
+            }
+            return run;
+        }
+
+        /**
+         * A simulation of this run advanced to {@code tick} (or to the end of
+         * the run if it is shorter), starting from the nearest keyframe.
+         */
+        public Simulation seek(long tick) {
+            InputLog log = run().log();
+            long target = Math.max(0L, Math.min(tick, ticks()));
+            int interval = buffer.getInt(FIXED_ENTRY_BYTES - 2 * Integer.BYTES);
+            int keyframe = (int) Math.min(target / interval, keyframeCount);
+            Simulation simulation = new Simulation(log.seed());
+            int next = 0;
+            if (keyframe == 0) {
+                simulation.start();
+            } else {
+                int at = FIXED_ENTRY_BYTES + (keyframe - 1) * KEYFRAME_BYTES;
+                simulation.restore(new Simulation.State((long) keyframe * interval, buffer.getFloat(at),
+                    buffer.getFloat(at + Float.BYTES), buffer.getInt(at + 2 * Float.BYTES), Simulation.Phase.RUNNING));
+                next = buffer.getInt(at + 2 * Float.BYTES + Integer.BYTES);
+            }
+            while (simulation.isAlive() && simulation.tick() < target) {
+                boolean flap = next < log.size() && log.flapTick(next) == simulation.tick();
+                if (flap) {
+                    next++;
+                }
+                simulation.step(flap);
+            }
+            return simulation;
+        }
+
+        private static ByteBuffer skipString(ByteBuffer in) {
+            int length = (int) ReplayCodec.getVarint(in);
+            return in.position(in.position() + length);
+        }
+    }
+
+    // Replays the run once, keeping the state after every keyframeInterval ticks
+    // the bird survives, already laid out as the entry stores it.
+    private ByteBuffer keyframes(InputLog log, long ticks) {
+        int count = (int) Math.max(0L, (ticks - 1L) / keyframeInterval);
+        ByteBuffer keyframes = ByteBuffer.allocate(count * KEYFRAME_BYTES);
+        Simulation simulation = new Simulation(log.seed());
+        simulation.start();
+        int next = 0;
+        while (keyframes.hasRemaining() && simulation.isAlive()) {
+            boolean flap = next < log.size() && log.flapTick(next) == simulation.tick();
+            if (flap) {
+                next++;
+            }
+            simulation.step(flap);
+            if (simulation.tick() % keyframeInterval == 0L && simulation.isAlive()) {
+                keyframes.putFloat(simulation.birdY());
+                keyframes.putFloat(simulation.velocity());
+                keyframes.putInt(simulation.score());
+                keyframes.putInt(next);
+            }
+        }
+        return keyframes.flip();
+    }
+
+    private void writeEntry(ByteBuffer out, String roomId, String playerId, int score, long ticks, InputLog log,
+                            long recordedAt, ByteBuffer keyframes) {
+        int start = out.position();
+        out.position(start + Integer.BYTES);
+        out.putLong(recordedAt);
+        out.putInt(score);
+        out.putLong(ticks);
+        out.putInt(keyframeInterval);
+        out.putInt(keyframes.remaining() / KEYFRAME_BYTES);
+        out.put(keyframes.duplicate());
+        ReplayCodec.putString(out, roomId);
+        ReplayCodec.putString(out, playerId);
+        ReplayCodec.encode(out, roomId, playerId, score, ticks, log);
+        out.putInt(start, out.position() - start - Integer.BYTES);
+    }
+
+    // Indexes the committed entries of a segment not seen yet.
+    private void scan(int segment) {
+        MappedByteBuffer buffer = segments.get(segment);
+        int from = segment == ids.lastSegment() ? scannedEnd : SEGMENT_HEADER_BYTES;
+        int committed = committed(buffer);
+        for (int offset = from; offset < committed; ) {
+            int length = buffer.getInt(offset);
+            if (length < FIXED_ENTRY_BYTES || length > committed - offset - Integer.BYTES) {
+                // A torn entry; nothing after it can be located, so the writer appends over it.
+                System.err.println("Replay archive segment " + segment + " is corrupt at " + offset
+                    + "; ignoring the rest of it");
+                if (writable) {
+                    INT_VIEW.setRelease(buffer, COMMITTED_OFFSET, offset);
+                    buffer.force(COMMITTED_OFFSET, Integer.BYTES);
+                }
+                committed = offset;
+                break;
+            }
+            Entry entry = new Entry(buffer, offset);
+            ids.add(((long) segment << 32) | offset, entry.recordedAtMillis(), entry.score(), entry.roomId(),
+                entry.playerId());
+            offset += Integer.BYTES + length;
+        }
+        ids.lastSegment = segment;
+        scannedEnd = committed;
+    }
+
+    // Builds the segment under a temporary name and renames it into place, so
+    // readers listing the directory only ever find initialised segments.
+    private void roll() throws IOException {
+        Path file = directory.resolve(String.format(Locale.ROOT, "segment-%06d.fra", segments.size()));
+        Path building = directory.resolve(file.getFileName() + ".tmp");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(building, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, segmentBytes);
+        }
+        buffer.putInt(0, SEGMENT_MAGIC);
+        INT_VIEW.setRelease(buffer, COMMITTED_OFFSET, SEGMENT_HEADER_BYTES);
+        buffer.force();
+        Files.move(building, file, StandardCopyOption.ATOMIC_MOVE);
+        segments.add(buffer);
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        try (FileChannel channel = writable
+            ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(mode, 0L, channel.size());
+            checkMagic(buffer, file);
+            return buffer;
+        }
+    }
+
+    private static void checkMagic(MappedByteBuffer buffer, Path file) throws IOException {
+        if (buffer.capacity() < SEGMENT_HEADER_BYTES || buffer.getInt(0) != SEGMENT_MAGIC) {
+            throw new IOException("Not a replay archive segment: " + file);
+        }
+    }
+
+    private static int committed(MappedByteBuffer segment) {
+        return (int) INT_VIEW.getAcquire(segment, COMMITTED_OFFSET);
+    }
+
+    // Growable int[]; the index holds millions of ids without boxing them.
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    // The in-memory index: id -> location and recording time, plus ids by player, room and score.
+    private static final class Ids {
+        private static final IntList NONE = new IntList();
+
+        private long[] locations = new long[1024];
+        private long[] recordedAt = new long[1024];
+        private int size;
+        private int lastSegment = -1;
+        private final Map<String, IntList> byPlayer = new HashMap<>();
+        private final Map<String, IntList> byRoom = new HashMap<>();
+        private final TreeMap<Integer, IntList> byScore = new TreeMap<>();
+
+        private void add(long location, long recorded, int score, String roomId, String playerId) {
+            if (size == locations.length) {
+                locations = Arrays.copyOf(locations, size * 2);
+                recordedAt = Arrays.copyOf(recordedAt, size * 2);
+            }
+            int id = size++;
+            locations[id] = location;
+            recordedAt[id] = recorded;
+            if (!playerId.isEmpty()) {
+                byPlayer.computeIfAbsent(playerId, key -> new IntList()).add(id);
+            }
+            if (!roomId.isEmpty()) {
+                byRoom.computeIfAbsent(roomId, key -> new IntList()).add(id);
+            }
+            byScore.computeIfAbsent(score, key -> new IntList()).add(id);
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int lastSegment() {
+            return lastSegment;
+        }
+
+        private long lastRecordedAt() {
+            return recordedAt[size - 1];
+        }
+
+        private long location(int id) {
+            if (id < 0 || id >= size) {
+                throw new IndexOutOfBoundsException(id);
+            }
+            return locations[id];
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.sim.Simulation;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary layout of recorded runs, written by {@link ReplayRecorder} and
+ * embedded as is in {@link ReplayArchive} entries.
+ *
+ * A replay file is {@link #MAGIC} followed by records back to back:
+ * <pre>
+ *   int32   payload length
+ *   payload:
+ *     varint  physics version ({@link Simulation#PHYSICS_VERSION})
+ *     int64   course seed
+ *     string  room id (empty for an offline run)
+ *     string  player id (empty for an offline run)
+ *     varint  score
+ *     varint  ticks survived
+ *     varint  flap count
+ *     varint  first flap tick, then the gap to each following flap
+ *   int32   CRC32C of the payload
+ * </pre>
+ * Integers are big-endian, varints unsigned LEB128, strings a varint byte
+ * length then UTF-8. Flaps are a few hundred ticks apart, so each takes one
+ * or two bytes and a typical run fits in a couple of hundred bytes.
+ *
+ * The file is append-only. A record cut short by a crash fails its length
+ * or checksum; readers stop there and {@link ReplayRecorder} truncates it
+ * before appending again.
+ */
+public final class ReplayCodec {
+    public static final int MAGIC = 0x46425231; // "FBR1"
+
+    private static final int HEADER_BYTES = Integer.BYTES;
+    private static final int FOOTER_BYTES = Integer.BYTES;
+
+    /**
+     * One decoded record.
+     */
+    public record RecordedRun(int physicsVersion, String roomId, String playerId, int score, long ticks,
+                              InputLog log) {
+    }
+
+    private ReplayCodec() {
+    }
+
+    /**
+     * Appends one record to {@code out}, leaving its position after it.
+     *
+     * @throws java.nio.BufferOverflowException if the record does not fit;
+     *         {@code out} is then left as it was
+     */
+    public static void encode(ByteBuffer out, String roomId, String playerId, int score, long ticks, InputLog log) {
+        int start = out.position();
+        try {
+            out.position(start + HEADER_BYTES);
+            putVarint(out, Simulation.PHYSICS_VERSION);
+            out.putLong(log.seed());
+            putString(out, roomId);
+            putString(out, playerId);
+            putVarint(out, score);
+            putVarint(out, ticks);
+            putVarint(out, log.size());
+            long previous = 0L;
+            for (int i = 0; i < log.size(); i++) {
+                long tick = log.flapTick(i);
+                putVarint(out, tick - previous);
+                previous = tick;
+            }
+            int payloadEnd = out.position();
+            int length = payloadEnd - start - HEADER_BYTES;
+            out.putInt(start, length);
+            out.putInt(crc(out, start + HEADER_BYTES, length));
+        } catch (RuntimeException e) {
+            out.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the record at the position of {@code in} and moves past it.
+     *
+     * @return the record, or {@code null} if {@code in} ends in the middle
+     *         of it or its checksum does not match (a torn tail); the
+     *         position is then unchanged
+     */
+    public static RecordedRun decode(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < HEADER_BYTES + FOOTER_BYTES) {
+            return null;
+        }
+        int length = in.getInt(start);
+        if (length < 0 || in.remaining() - HEADER_BYTES - FOOTER_BYTES < length) {
+            return null;
+        }
+        int payloadStart = start + HEADER_BYTES;
+        if (in.getInt(payloadStart + length) != crc(in, payloadStart, length)) {
+            return null;
+        }
+        ByteBuffer payload = in.duplicate().position(payloadStart).limit(payloadStart + length);
+        RecordedRun run;
+        try {
+            int physicsVersion = (int) getVarint(payload);
+            long seed = payload.getLong();
+            String roomId = getString(payload);
+            String playerId = getString(payload);
+            int score = (int) getVarint(payload);
+            long ticks = getVarint(payload);
+            int flaps = (int) getVarint(payload);
+            if (flaps < 0 || flaps > length) {
+                throw new IllegalArgumentException("Bad flap count " + flaps);
+            }
+            long[] flapTicks = new long[flaps];
+            long tick = 0L;
+            for (int i = 0; i < flaps; i++) {
+                tick += getVarint(payload);
+                flapTicks[i] = tick;
+            }
+            run = new RecordedRun(physicsVersion, roomId, playerId, score, ticks, InputLog.of(seed, flapTicks));
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Replay record shorter than its contents", e);
+        }
+        in.position(payloadStart + length + FOOTER_BYTES);
+        return run;
+    }
+
+    /**
+     * Every complete record of a replay file, in the order written.
+     */
+    public static List<RecordedRun> readAll(Path file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        checkMagic(in, file);
+        List<RecordedRun> runs = new ArrayList<>();
+        RecordedRun run;
+        while ((run = decode(in)) != null) {
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    /**
+     * Length of the file up to the end of its last complete record, or 0 if
+     * it holds no header yet.
+     */
+    static long validLength(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < Integer.BYTES) {
+            return 0L;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        checkMagic(in, file);
+        while (decode(in) != null) {
+            // Skip to the first record that does not check out.
+        }
+        return in.position();
+    }
+
+    private static void checkMagic(ByteBuffer in, Path file) throws IOException {
+        if (in.remaining() < Integer.BYTES || in.getInt() != MAGIC) {
+            throw new IOException("Not a replay file: " + file);
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(offset).limit(offset + length));
+        return (int) crc.getValue();
+    }
+
+    static void putVarint(ByteBuffer out, long value) {
+        if (value < 0L) {
+            throw new IllegalArgumentException("Negative varint " + value);
+        }
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0L) {
+            out.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.put((byte) remaining);
+    }
+
+    static long getVarint(ByteBuffer in) {
+        long value = 0L;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint longer than 64 bits");
+    }
+
+    static void putString(ByteBuffer out, String value) {
+        if (value == null || value.isEmpty()) {
+            out.put((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    static String getString(ByteBuffer in) {
+        int length = (int) getVarint(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
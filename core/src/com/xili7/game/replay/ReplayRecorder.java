@@ -0,0 +1,220 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.CounterFamily;
+import com.xili7.game.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends finished runs to a replay file ({@link ReplayCodec} layout)
+ * without blocking the caller on disk.
+ *
+ * {@link #record} encodes the run straight into one of a fixed set of
+ * preallocated buffers and hands it to a single writer thread, which
+ * appends whatever has queued up with one gathering write and returns the
+ * buffers. Callers copy nothing, allocate nothing per flap and never wait
+ * for I/O; any number of threads may record at once. The buffers bound the
+ * memory held: when all of them are waiting to be written, further runs are
+ * dropped and counted rather than queued.
+ *
+ * Reported through the registry: {@code replays_recorded},
+ * {@code replay_bytes} and {@code replays_dropped} by reason.
+ */
+public final class ReplayRecorder implements AutoCloseable {
+    /** Enough for a record of several thousand flaps. */
+    public static final int BUFFER_BYTES = 32 * 1024;
+
+    private static final long POLL_MILLIS = 100L;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    private final ArrayBlockingQueue<ByteBuffer> written;
+    private final ByteBuffer[] batch;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private final Counter replaysRecorded;
+    private final Counter replayBytes;
+    private final CounterFamily replaysDropped;
+
+    /**
+     * Opens {@code file} for appending, creating it and its directory if
+     * needed and cutting off a record left incomplete by a crash.
+     *
+     * @param buffers how many runs may wait for the writer at once
+     */
+    public ReplayRecorder(Path file, int buffers, MetricsRegistry registry) throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        long validLength = ReplayCodec.validLength(file);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (validLength == 0L) {
+                channel.truncate(0L);
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, ReplayCodec.MAGIC));
+            } else {
+                channel.truncate(validLength);
+                channel.position(validLength);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        int count = Math.max(1, buffers);
+        free = new ArrayBlockingQueue<>(count);
+        written = new ArrayBlockingQueue<>(count);
+        batch = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            free.add(ByteBuffer.allocateDirect(BUFFER_BYTES));
+        }
+
+        replaysRecorded = registry.counter("replays_recorded");
+        replayBytes = registry.counter("replay_bytes");
+        replaysDropped = registry.counterFamily("replays_dropped", "reason");
+        registry.gauge("replay_buffers_queued", written::size);
+
+        writer = new Thread(this::writeLoop, "replay-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Queues one finished run for writing. The log is encoded before this
+     * returns, so the caller may {@link InputLog#reset} it right away.
+     *
+     * @param roomId   room the run was played in, or {@code null} offline
+     * @param playerId player who flew it, or {@code null} offline
+     * @return false if the run was dropped (recorder closed, all buffers
+     *         queued, or the run too long for a buffer)
+     */
+    public boolean record(String roomId, String playerId, int score, long ticks, InputLog log) {
+        if (closed) {
+            replaysDropped.get("closed").increment();
+            return false;
+        }
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            replaysDropped.get("full").increment();
+            return false;
+        }
+        try {
+            ReplayCodec.encode(buffer, roomId, playerId, score, ticks, log);
+        } catch (BufferOverflowException | IllegalArgumentException e) {
+            buffer.clear();
+            free.add(buffer);
+            replaysDropped.get("oversized").increment();
+            return false;
+        }
+        buffer.flip();
+        written.add(buffer);
+        // Closed meanwhile, and the writer may already have drained the queue for the last time.
+        // Identity, not remove(): ByteBuffer.equals compares contents.
+        if (closed && written.removeIf(queued -> queued == buffer)) {
+            buffer.clear();
+            free.add(buffer);
+            replaysDropped.get("closed").increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes everything already recorded, then closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close replay file " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed || !written.isEmpty()) {
+            ByteBuffer first;
+            try {
+                first = written.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            int count = 0;
+            batch[count++] = first;
+            ByteBuffer next;
+            while (count < batch.length && (next = written.poll()) != null) {
+                batch[count++] = next;
+            }
+            write(count);
+            for (int i = 0; i < count; i++) {
+                batch[i].clear();
+                free.add(batch[i]);
+                batch[i] = null;
+            }
+        }
+    }
+
+    private void write(int count) {
+        long bytes = 0L;
+        for (int i = 0; i < count; i++) {
+            bytes += batch[i].remaining();
+        }
+        long committedLength = -1L;
+        try {
+            committedLength = channel.position();
+            long remaining = bytes;
+            while (remaining > 0L) {
+                remaining -= channel.write(batch, 0, count);
+            }
+            replaysRecorded.add(count);
+            replayBytes.add(bytes);
+        } catch (IOException e) {
+            replaysDropped.get("io").add(count);
+            System.err.println("Could not write replays to " + file + ": " + e.getMessage());
+            discardPartialWrite(committedLength);
+        }
+    }
+
+    // A batch written only in part would hide every later record from readers.
+    private void discardPartialWrite(long committedLength) {
+        if (committedLength < 0L) {
+            return;
+        }
+        try {
+            channel.truncate(committedLength);
+            channel.position(committedLength);
+        } catch (IOException e) {
+            System.err.println("Could not roll back replay file " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.xili7.game.replay;
+
+import com.xili7.game.metrics.Counter;
+import com.xili7.game.metrics.CounterFamily;
+import com.xili7.game.metrics.Histogram;
+import com.xili7.game.metrics.MetricsRegistry;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Verifies claimed scores by re-simulating submitted runs.
+ *
+ * Each submission is replayed headless from its {@link InputLog} on a
+ * dedicated {@link ForkJoinPool} (FIFO, one worker per core by default) and
+ * accepted only if the replay dies with exactly the claimed score. Runs are
+ * independent, so verification scales with cores; a replay costs tens of
+ * nanoseconds per course step. Submissions beyond {@code maxPending} are
+ * answered {@link Outcome#BUSY} right away instead of queueing unboundedly.
+ *
+ * Throughput is reported through the registry: {@code runs_verified} by
+ * outcome, {@code replay_steps} and {@code verify_nanos}.
+ */
+public final class ReplayVerifier implements AutoCloseable {
+    /** Longest run replayed: one hour of course time. */
+    public static final long MAX_TICKS = TimeUnit.HOURS.toMillis(1) / CourseGeometry.STEP_MILLIS;
+
+    private static final int BATCH_THRESHOLD = 16;
+
+    public enum Outcome {
+        ACCEPTED,
+        /** The replay died with a different score. */
+        SCORE_MISMATCH,
+        /** Flaps after the bird died, or a run longer than {@link #MAX_TICKS}. */
+        MALFORMED,
+        /** Too many submissions pending; not verified. */
+        BUSY,
+        /** Flown on a course the server did not issue; not verified. */
+        WRONG_COURSE
+    }
+
+    public record Result(Outcome outcome, int claimedScore, int verifiedScore, long ticks) {
+        public boolean accepted() {
+            return outcome == Outcome.ACCEPTED;
+        }
+    }
+
+    public record Submission(InputLog log, int claimedScore) {
+    }
+
+    private final ForkJoinPool pool;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final CounterFamily runsVerified;
+    private final Counter replaySteps;
+    private final Histogram verifyNanos;
+
+    public ReplayVerifier(int parallelism, int maxPending, MetricsRegistry registry) {
+        this.pool = new ForkJoinPool(parallelism, ReplayVerifier::newWorker, null, true);
+        this.maxPending = maxPending;
+        this.runsVerified = registry.counterFamily("runs_verified", "outcome");
+        this.replaySteps = registry.counter("replay_steps");
+        this.verifyNanos = registry.histogram("verify_nanos");
+        registry.gauge("verify_pending", pending::get);
+    }
+
+    /**
+     * Replays one run on the calling thread.
+     */
+    public static Result verify(InputLog log, int claimedScore) {
+        Simulation simulation = log.replay(MAX_TICKS);
+        long ticks = simulation.tick();
+        Outcome outcome;
+        if (simulation.isAlive() || (log.size() > 0 && log.flapTick(log.size() - 1) >= ticks)) {
+            outcome = Outcome.MALFORMED;
+        } else if (simulation.score() != claimedScore) {
+            outcome = Outcome.SCORE_MISMATCH;
+        } else {
+            outcome = Outcome.ACCEPTED;
+        }
+        return new Result(outcome, claimedScore, simulation.score(), ticks);
+    }
+
+    /**
+     * Queues a run that must have been flown on the course with
+     * {@code issuedSeed}; a run on any other course is answered
+     * {@link Outcome#WRONG_COURSE} without being replayed.
+     */
+    public CompletableFuture<Result> submit(InputLog log, int claimedScore, long issuedSeed) {
+        if (log.seed() != issuedSeed) {
+            runsVerified.get(Outcome.WRONG_COURSE.name()).increment();
+            return CompletableFuture.completedFuture(new Result(Outcome.WRONG_COURSE, claimedScore, 0, 0L));
+        }
+        return submit(log, claimedScore);
+    }
+
+    /**
+     * Queues a run for verification; the future completes on a pool thread.
+     */
+    public CompletableFuture<Result> submit(InputLog log, int claimedScore) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            runsVerified.get(Outcome.BUSY.name()).increment();
+            return CompletableFuture.completedFuture(new Result(Outcome.BUSY, claimedScore, 0, 0L));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return verifyCounted(log, claimedScore);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }, pool);
+    }
+
+    /**
+     * Verifies a batch (e.g. a replay archive) by splitting it across the
+     * pool, and waits for all of it.
+     */
+    public Result[] verifyAll(List<Submission> submissions) {
+        Result[] results = new Result[submissions.size()];
+        pool.invoke(new Batch(submissions, results, 0, results.length));
+        return results;
+    }
+
+    public int pending() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private Result verifyCounted(InputLog log, int claimedScore) {
+        long start = System.nanoTime();
+        Result result = verify(log, claimedScore);
+        verifyNanos.recordSince(start);
+        replaySteps.add(result.ticks());
+        runsVerified.get(result.outcome().name()).increment();
+        return result;
+    }
+
+    private static ForkJoinWorkerThread newWorker(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("replay-verifier-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    // Fork/join tasks are never serialized.
+    @SuppressWarnings("serial")
+    private final class Batch extends RecursiveAction {
+        private final List<Submission> submissions;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        private Batch(List<Submission> submissions, Result[] results, int from, int to) {
+            this.submissions = submissions;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    Submission submission = submissions.get(i);
+                    results[i] = verifyCounted(submission.log(), submission.claimedScore());
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(submissions, results, from, middle), new Batch(submissions, results, middle, to));
+        }
+    }
+}
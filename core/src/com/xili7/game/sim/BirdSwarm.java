@@ -0,0 +1,304 @@
+package com.xili7.game.sim;
+
+import java.util.Arrays;
+
+/**
+ * Many birds flying the same course together, stored as parallel primitive
+ * arrays instead of one {@link Simulation} object per bird.
+ *
+ * All birds start together and share the tick, so pipe positions, the
+ * score line and the gap band in the birds' column are worked out once per
+ * step; per bird a step is a few float operations. The physics loop has no
+ * branches and runs over plain {@code float[]}s, which C2 auto-vectorizes.
+ * Results are bit-identical to a {@link Simulation} given the same flaps.
+ *
+ * A swarm built on an {@link ObstacleIndex} flies that instead of the
+ * course's pipes: each step the obstacles in the birds' column are fetched
+ * once from the index, whatever their kind or however dense the course, and
+ * the score counts the pipes passed.
+ *
+ * Slots {@code [0, activeCount())} hold live birds. A bird that dies is
+ * swapped to the end of that range (compaction), so loops only ever touch
+ * live birds; {@link #idAt(int)} maps a slot back to the id returned by
+ * {@link #add()}, and per-id results stay readable after death.
+ *
+ * Not thread-safe; one swarm belongs to one thread at a time.
+ */
+public final class BirdSwarm {
+    private static final float CEILING_Y = CourseGeometry.WORLD_HEIGHT - CourseGeometry.BIRD_HEIGHT;
+
+    private final Course course;
+    private final ObstacleIndex obstacles;
+
+    // Solid bounds of the obstacles in the birds' column this step.
+    private final float[] columnLows;
+    private final float[] columnHighs;
+    private final boolean[] columnSolidBands;
+    private final int[] columnHandles;
+    private int columnCount;
+
+    // Indexed by slot; reordered by compaction.
+    private float[] ys;
+    private float[] velocities;
+    private int[] ids;
+
+    // Indexed by id.
+    private int[] slots;
+    private int[] scores;
+    private boolean[] alive;
+    private long[] deathTicks;
+
+    private int size;
+    private int active;
+    private long tick;
+    private int score;
+    private int passed;
+
+    public BirdSwarm(Course course, int initialCapacity) {
+        this(course, null, 2, initialCapacity);
+    }
+
+    public BirdSwarm(ObstacleIndex obstacles, int initialCapacity) {
+        this(null, obstacles, obstacles.columnCapacity(), initialCapacity);
+    }
+
+    private BirdSwarm(Course course, ObstacleIndex obstacles, int columnCapacity, int initialCapacity) {
+        this.course = course;
+        this.obstacles = obstacles;
+        columnLows = new float[columnCapacity];
+        columnHighs = new float[columnCapacity];
+        columnSolidBands = new boolean[columnCapacity];
+        columnHandles = new int[columnCapacity];
+        int capacity = Math.max(1, initialCapacity);
+        ys = new float[capacity];
+        velocities = new float[capacity];
+        ids = new int[capacity];
+        slots = new int[capacity];
+        scores = new int[capacity];
+        alive = new boolean[capacity];
+        deathTicks = new long[capacity];
+    }
+
+    /**
+     * The course whose pipes the birds fly, or {@code null} for a swarm on an {@link ObstacleIndex}.
+     */
+    public Course course() {
+        return course;
+    }
+
+    public ObstacleIndex obstacles() {
+        return obstacles;
+    }
+
+    /**
+     * Adds a bird at the start position. Birds can only be added before the
+     * first step.
+     *
+     * @return the bird's id, 0 for the first one and increasing from there
+     */
+    public int add() {
+        if (tick != 0L) {
+            throw new IllegalStateException("Birds must be added before the first step");
+        }
+        if (size == ys.length) {
+            grow(size * 2);
+        }
+        int id = size++;
+        ys[id] = Simulation.START_Y;
+        velocities[id] = 0f;
+        ids[id] = id;
+        slots[id] = id;
+        alive[id] = true;
+        active++;
+        return id;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of live birds; they occupy slots {@code [0, activeCount())}.
+     */
+    public int activeCount() {
+        return active;
+    }
+
+    public long tick() {
+        return tick;
+    }
+
+    /**
+     * Score shared by every live bird.
+     */
+    public int score() {
+        return score;
+    }
+
+    public int idAt(int slot) {
+        return ids[slot];
+    }
+
+    public float yAt(int slot) {
+        return ys[slot];
+    }
+
+    public float velocityAt(int slot) {
+        return velocities[slot];
+    }
+
+    /**
+     * Makes the live bird in {@code slot} flap on the next step. A flap is
+     * the first thing a step applies, so the new velocity is stored right
+     * away and {@link #velocityAt} shows it before the step.
+     */
+    public void flap(int slot) {
+        if (slot >= active) {
+            throw new IndexOutOfBoundsException(slot);
+        }
+        velocities[slot] = Simulation.FLAP_VELOCITY;
+    }
+
+    public boolean isAlive(int id) {
+        return alive[id];
+    }
+
+    public float yOf(int id) {
+        return ys[slots[id]];
+    }
+
+    public int scoreOf(int id) {
+        return alive[id] ? score : scores[id];
+    }
+
+    /**
+     * Ticks the bird survived: its death tick, or the current tick while alive.
+     */
+    public long ticksOf(int id) {
+        return alive[id] ? tick : deathTicks[id];
+    }
+
+    /**
+     * Advances every live bird one course step.
+     *
+     * @return the number of birds still alive
+     */
+    public int step() {
+        if (active == 0) {
+            return 0;
+        }
+        float[] y = ys;
+        float[] velocity = velocities;
+
+        tick++;
+        if (obstacles == null) {
+            while (CourseGeometry.pipeX(score, tick) < CourseGeometry.SCORE_LINE_X) {
+                score++;
+            }
+        } else {
+            passed = obstacles.passed(passed, tick);
+            score = obstacles.score(passed);
+        }
+
+        int count = active;
+        for (int i = 0; i < count; i++) {
+            float v = velocity[i] - Simulation.GRAVITY * CourseGeometry.STEP_SECONDS;
+            velocity[i] = v;
+            y[i] += v * CourseGeometry.STEP_SECONDS;
+        }
+
+        if (obstacles == null) {
+            collectPipes();
+        } else {
+            collectObstacles();
+        }
+
+        for (int i = 0; i < count; ) {
+            float birdY = y[i];
+            if (birdY >= CEILING_Y) {
+                birdY = CEILING_Y;
+                y[i] = birdY;
+                velocity[i] = 0f;
+            }
+            if (birdY < CourseGeometry.GROUND_Y || blocked(birdY)) {
+                kill(i, --count);
+            } else {
+                i++;
+            }
+        }
+        active = count;
+        return count;
+    }
+
+    // Same pipes as Simulation.hitsPipe: the last one passed and the next, if in the birds' column.
+    private void collectPipes() {
+        columnCount = 0;
+        long firstPipe = Math.max(0L, score - 1L);
+        for (long pipe = firstPipe; pipe <= score; pipe++) {
+            double x = CourseGeometry.pipeX(pipe, tick);
+            if (CourseGeometry.BIRD_X + CourseGeometry.BIRD_WIDTH >= x
+                && CourseGeometry.BIRD_X < x + CourseGeometry.PIPE_WIDTH) {
+                float gapY = course.gapY(pipe);
+                columnLows[columnCount] = gapY + CourseGeometry.PIPE_HEAD_HEIGHT;
+                columnHighs[columnCount] = gapY + CourseGeometry.PIPE_GAP;
+                columnSolidBands[columnCount] = false;
+                columnCount++;
+            }
+        }
+    }
+
+    private void collectObstacles() {
+        columnCount = obstacles.inColumn(tick, columnHandles);
+        for (int c = 0; c < columnCount; c++) {
+            int handle = columnHandles[c];
+            columnLows[c] = obstacles.low(handle);
+            columnHighs[c] = obstacles.high(handle);
+            columnSolidBands[c] = obstacles.solidBand(handle);
+        }
+    }
+
+    private boolean blocked(float birdY) {
+        for (int c = 0; c < columnCount; c++) {
+            if (Obstacle.blocks(columnSolidBands[c], columnLows[c], columnHighs[c], birdY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Records the death of the bird in slot and swaps it with the last live slot.
+    private void kill(int slot, int lastLive) {
+        int id = ids[slot];
+        alive[id] = false;
+        scores[id] = score;
+        deathTicks[id] = tick;
+        ys[slot] = CourseGeometry.GROUND_Y;
+        if (slot != lastLive) {
+            swap(slot, lastLive);
+        }
+    }
+
+    private void swap(int a, int b) {
+        float y = ys[a];
+        ys[a] = ys[b];
+        ys[b] = y;
+        float velocity = velocities[a];
+        velocities[a] = velocities[b];
+        velocities[b] = velocity;
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        slots[ids[a]] = a;
+        slots[ids[b]] = b;
+    }
+
+    private void grow(int capacity) {
+        ys = Arrays.copyOf(ys, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        slots = Arrays.copyOf(slots, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        alive = Arrays.copyOf(alive, capacity);
+        deathTicks = Arrays.copyOf(deathTicks, capacity);
+    }
+}
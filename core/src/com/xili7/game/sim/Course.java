@@ -0,0 +1,65 @@
+package com.xili7.game.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pipe gaps of one course, derived from a 64-bit seed.
+ *
+ * Gap {@code n} is a pure function of the seed and {@code n} (a SplitMix64
+ * hash, integer arithmetic only, converted to a float with the same
+ * operations everywhere), so every client, the server and a replay reading
+ * the seed rebuild the same course without exchanging pipes, and pipe
+ * {@code n} can be looked up without generating the ones before it.
+ *
+ * Pipe 0 keeps its historical centred gap; a run always opens the same way.
+ */
+public final class Course {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final float UNIT_FLOAT = 0x1.0p-24f;
+
+    private static final float FIRST_GAP_Y = 0.5f * CourseGeometry.WORLD_HEIGHT;
+    private static final float MIN_GAP_Y = 0.2f * CourseGeometry.WORLD_HEIGHT;
+    private static final float GAP_Y_RANGE = 0.4f * CourseGeometry.WORLD_HEIGHT;
+
+    private final long seed;
+
+    public Course(long seed) {
+        this.seed = seed;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    /**
+     * Bottom edge of the gap of the {@code pipeIndex}-th pipe of the run.
+     */
+    public float gapY(long pipeIndex) {
+        if (pipeIndex == 0L) {
+            return FIRST_GAP_Y;
+        }
+        // Top 24 bits give a uniform float in [0, 1) without rounding up to 1.
+        float unit = (mix(seed + pipeIndex * GOLDEN_GAMMA) >>> 40) * UNIT_FLOAT;
+        return MIN_GAP_Y + unit * GAP_Y_RANGE;
+    }
+
+    /**
+     * The first {@code pipes} pipes of this course as obstacles, at the
+     * positions {@link CourseGeometry#pipeX} gives them; add other obstacles
+     * to the list to build a denser {@link ObstacleIndex}.
+     */
+    public List<Obstacle> obstacles(int pipes) {
+        List<Obstacle> obstacles = new ArrayList<>(pipes);
+        for (int pipe = 0; pipe < pipes; pipe++) {
+            obstacles.add(Obstacle.pipe(CourseGeometry.pipeX(pipe, 0L), gapY(pipe)));
+        }
+        return obstacles;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
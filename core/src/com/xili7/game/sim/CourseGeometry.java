@@ -0,0 +1,89 @@
+package com.xili7.game.sim;
+
+/**
+ * Fixed dimensions and timing of the course, in world units (the
+ * {@code GameScreen} viewport is {@value #WORLD_WIDTH} x {@value #WORLD_HEIGHT}).
+ *
+ * The course advances in fixed steps of {@value #STEP_SECONDS} s; every step
+ * moves the pipes left by {@link #PIPE_SPEED_PER_STEP}. Pipe {@code n} of a
+ * run sits at {@link #pipeX(long, long)}, a function of the step count only,
+ * which lets the server know what a client can have reached at a given tick
+ * without simulating it.
+ */
+public final class CourseGeometry {
+    public static final int WORLD_WIDTH = 100;
+    public static final int WORLD_HEIGHT = 200;
+
+    public static final float STEP_SECONDS = 0.005f;
+    public static final int STEP_MILLIS = 5;
+
+    public static final float GROUND_Y = 0.15f * WORLD_HEIGHT;
+    public static final float BIRD_X = 0.25f * WORLD_WIDTH;
+    public static final float BIRD_WIDTH = 0.15f * WORLD_WIDTH;
+    public static final float BIRD_HEIGHT = WORLD_HEIGHT / 17f;
+
+    public static final int PIPE_COUNT = 4;
+    public static final float PIPE_WIDTH = WORLD_WIDTH / 6f;
+    public static final float PIPE_SPACING = 4f * WORLD_WIDTH / 6f;
+    public static final float PIPE_GAP = WORLD_HEIGHT / 3f;
+    public static final float PIPE_HEAD_HEIGHT = WORLD_HEIGHT / 30f;
+    public static final float PIPE_SPEED_PER_STEP = WORLD_WIDTH / 400f;
+    public static final float FIRST_PIPE_X = 2f * WORLD_WIDTH;
+
+    /** A pipe scores once its left edge passes this x. */
+    public static final float SCORE_LINE_X = BIRD_X + BIRD_WIDTH / 2f;
+
+    private CourseGeometry() {
+    }
+
+    /**
+     * Left edge of the {@code pipeIndex}-th pipe of a run after {@code steps} course steps.
+     */
+    public static double pipeX(long pipeIndex, long steps) {
+        return FIRST_PIPE_X + pipeIndex * (double) PIPE_SPACING - steps * (double) PIPE_SPEED_PER_STEP;
+    }
+
+    /**
+     * Score after {@code steps} course steps for a bird still alive: the
+     * number of pipes whose left edge has crossed {@link #SCORE_LINE_X}.
+     * This is exactly the score {@link Simulation} counts, so it is also an
+     * upper bound for any run.
+     */
+    public static int maxScoreAt(long steps) {
+        if (steps <= 0) {
+            return 0;
+        }
+        double passed = (steps * (double) PIPE_SPEED_PER_STEP - (FIRST_PIPE_X - SCORE_LINE_X)) / PIPE_SPACING;
+        return (int) Math.min(Integer.MAX_VALUE, settle(passed <= 0d ? 0L : (long) Math.ceil(passed), steps, SCORE_LINE_X));
+    }
+
+    /**
+     * Index of the leftmost pipe still on screen after {@code steps} course
+     * steps; it and the following {@link #PIPE_COUNT} - 1 pipes cover the view.
+     */
+    public static long firstVisiblePipe(long steps) {
+        double gone = (steps * (double) PIPE_SPEED_PER_STEP - (FIRST_PIPE_X + PIPE_WIDTH)) / PIPE_SPACING;
+        return settle(gone <= 0d ? 0L : (long) Math.ceil(gone), steps, -PIPE_WIDTH);
+    }
+
+    /**
+     * Index of the pipe the bird is in or flying towards after {@code steps}
+     * course steps: the first one whose right edge has not passed the bird.
+     */
+    public static long pipeAhead(long steps) {
+        return settle(Math.max(0L, maxScoreAt(steps) - 1L), steps, BIRD_X - PIPE_WIDTH);
+    }
+
+    // First pipe index whose left edge is at or right of x. The estimate may be
+    // off by one from rounding; checking it against pipeX keeps every caller consistent.
+    private static long settle(long estimate, long steps, double x) {
+        long index = estimate;
+        while (index > 0L && pipeX(index - 1, steps) >= x) {
+            index--;
+        }
+        while (pipeX(index, steps) < x) {
+            index++;
+        }
+        return index;
+    }
+}
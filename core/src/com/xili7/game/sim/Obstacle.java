@@ -0,0 +1,65 @@
+package com.xili7.game.sim;
+
+/**
+ * One obstacle of a course in course coordinates: its left edge is at
+ * {@code x} before the first step and scrolls left with the pipes, so after
+ * {@code steps} steps it is at {@link #xAt(long)}.
+ *
+ * {@code low} and {@code high} bound a band of heights; the {@link Kind}
+ * says whether the band is the way through or the solid part.
+ */
+public record Obstacle(Kind kind, double x, float width, float low, float high) {
+    public enum Kind {
+        /** A pipe pair: solid below {@code low} and above {@code high}; scores once passed. */
+        PIPE,
+        /** A floating block: solid from {@code low} to {@code high}; does not score. */
+        BLOCK
+    }
+
+    public Obstacle {
+        if (kind == null) {
+            throw new IllegalArgumentException("Obstacle kind is required");
+        }
+        if (!(width > 0f) || !(low <= high)) {
+            throw new IllegalArgumentException("Bad obstacle bounds: width=" + width + " low=" + low + " high=" + high);
+        }
+    }
+
+    /**
+     * A regular pipe pair whose gap starts at {@code gapY}, with the same
+     * bounds {@link Simulation} collides with.
+     */
+    public static Obstacle pipe(double x, float gapY) {
+        return new Obstacle(Kind.PIPE, x, CourseGeometry.PIPE_WIDTH,
+            gapY + CourseGeometry.PIPE_HEAD_HEIGHT, gapY + CourseGeometry.PIPE_GAP);
+    }
+
+    public static Obstacle block(double x, float width, float low, float high) {
+        return new Obstacle(Kind.BLOCK, x, width, low, high);
+    }
+
+    public boolean scores() {
+        return kind == Kind.PIPE;
+    }
+
+    /**
+     * Left edge after {@code steps} course steps.
+     */
+    public double xAt(long steps) {
+        return x - steps * (double) CourseGeometry.PIPE_SPEED_PER_STEP;
+    }
+
+    /**
+     * Whether a bird at height {@code birdY} overlaps the solid part, ignoring x.
+     */
+    public boolean blocks(float birdY) {
+        return blocks(kind == Kind.BLOCK, low, high, birdY);
+    }
+
+    static boolean blocks(boolean solidBand, float low, float high, float birdY) {
+        float top = birdY + CourseGeometry.BIRD_HEIGHT;
+        return solidBand
+            ? birdY < high && top > low
+            : birdY < low || top > high;
+    }
+}
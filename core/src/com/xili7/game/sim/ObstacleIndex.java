@@ -0,0 +1,242 @@
+package com.xili7.game.sim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable 1-D spatial index of a course's obstacles, keyed by course x.
+ *
+ * The course is cut into buckets of equal width; each bucket lists the
+ * obstacles overlapping it, stored flat (bucket {@code b} owns
+ * {@code entries[bucketStarts[b]..bucketStarts[b + 1])}). A query for the
+ * bird's column looks at the few buckets under it and tests only the
+ * obstacles listed there, so its cost depends on how dense the course is
+ * locally, not on how long it is. Obstacles of any width and kind may
+ * overlap each other; a wide one is listed in every bucket it covers.
+ *
+ * Obstacles are stored by increasing x as parallel arrays, so the
+ * {@code int} handles returned by {@link #inColumn} index straight into
+ * them. Column tests place obstacles as {@link Obstacle#xAt(long)} does,
+ * the same arithmetic as {@link CourseGeometry#pipeX}, so an index of
+ * {@link Course#obstacles} collides exactly where {@link Simulation} does.
+ *
+ * Safe to share between threads once built.
+ */
+public final class ObstacleIndex {
+    public static final float DEFAULT_BUCKET_WIDTH = CourseGeometry.PIPE_WIDTH;
+
+    private final double[] xs;
+    private final float[] widths;
+    private final float[] lows;
+    private final float[] highs;
+    private final boolean[] solidBands;
+    // scoringBefore[i]: scoring obstacles among the first i.
+    private final int[] scoringBefore;
+    private final int[] firstBuckets;
+
+    private final double origin;
+    private final double bucketWidth;
+    private final int[] bucketStarts;
+    private final int[] entries;
+    private final int columnCapacity;
+
+    public ObstacleIndex(List<Obstacle> obstacles) {
+        this(obstacles, DEFAULT_BUCKET_WIDTH);
+    }
+
+    public ObstacleIndex(List<Obstacle> obstacles, float bucketWidth) {
+        if (!(bucketWidth > 0f)) {
+            throw new IllegalArgumentException("Bucket width must be positive: " + bucketWidth);
+        }
+        List<Obstacle> sorted = new ArrayList<>(obstacles);
+        sorted.sort(Comparator.comparingDouble(Obstacle::x));
+        int count = sorted.size();
+
+        xs = new double[count];
+        widths = new float[count];
+        lows = new float[count];
+        highs = new float[count];
+        solidBands = new boolean[count];
+        scoringBefore = new int[count + 1];
+        firstBuckets = new int[count];
+        double right = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            Obstacle obstacle = sorted.get(i);
+            xs[i] = obstacle.x();
+            widths[i] = obstacle.width();
+            lows[i] = obstacle.low();
+            highs[i] = obstacle.high();
+            solidBands[i] = obstacle.kind() == Obstacle.Kind.BLOCK;
+            scoringBefore[i + 1] = scoringBefore[i] + (obstacle.scores() ? 1 : 0);
+            right = Math.max(right, obstacle.x() + obstacle.width());
+        }
+
+        this.origin = count == 0 ? 0d : xs[0];
+        this.bucketWidth = bucketWidth;
+        int buckets = count == 0 ? 1 : bucketOf(right) + 1;
+
+        // Count, prefix-sum, then fill: two passes over the obstacles, no per-bucket lists.
+        bucketStarts = new int[buckets + 1];
+        for (int i = 0; i < count; i++) {
+            firstBuckets[i] = bucketOf(xs[i]);
+            for (int b = firstBuckets[i], last = bucketOf(xs[i] + widths[i]); b <= last; b++) {
+                bucketStarts[b + 1]++;
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        entries = new int[bucketStarts[buckets]];
+        int[] fill = new int[buckets];
+        for (int i = 0; i < count; i++) {
+            for (int b = firstBuckets[i], last = bucketOf(xs[i] + widths[i]); b <= last; b++) {
+                entries[bucketStarts[b] + fill[b]++] = i;
+            }
+        }
+
+        // Most handles a column query can return: the fullest run of buckets one query spans.
+        int span = (int) Math.ceil(CourseGeometry.BIRD_WIDTH / bucketWidth) + 3;
+        int window = 0;
+        int widest = 0;
+        for (int b = 0; b < buckets; b++) {
+            window += bucketStarts[b + 1] - bucketStarts[b];
+            if (b >= span) {
+                window -= bucketStarts[b - span + 1] - bucketStarts[b - span];
+            }
+            widest = Math.max(widest, window);
+        }
+        columnCapacity = Math.min(count, widest);
+    }
+
+    public int size() {
+        return xs.length;
+    }
+
+    public Obstacle get(int handle) {
+        return new Obstacle(solidBands[handle] ? Obstacle.Kind.BLOCK : Obstacle.Kind.PIPE,
+            xs[handle], widths[handle], lows[handle], highs[handle]);
+    }
+
+    /**
+     * Smallest buffer {@link #inColumn} can need for this index.
+     */
+    public int columnCapacity() {
+        return columnCapacity;
+    }
+
+    /**
+     * Writes the handles of the obstacles overlapping the bird's column after
+     * {@code steps} course steps into {@code out}, each once.
+     *
+     * @param out at least {@link #columnCapacity()} long
+     * @return the number of handles written
+     */
+    public int inColumn(long steps, int[] out) {
+        if (xs.length == 0) {
+            return 0;
+        }
+        int firstQueried = firstQueriedBucket(steps);
+        int lastQueried = lastQueriedBucket(steps);
+        int found = 0;
+        for (int b = firstQueried; b <= lastQueried; b++) {
+            for (int e = bucketStarts[b], end = bucketStarts[b + 1]; e < end; e++) {
+                int i = entries[e];
+                // A wide obstacle is listed in several buckets; report it from the first one queried.
+                if (Math.max(firstBuckets[i], firstQueried) == b && inBirdColumn(i, steps)) {
+                    out[found++] = i;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Whether a bird at height {@code birdY} overlaps any obstacle after
+     * {@code steps} course steps.
+     */
+    public boolean hits(long steps, float birdY) {
+        if (xs.length == 0) {
+            return false;
+        }
+        for (int b = firstQueriedBucket(steps), last = lastQueriedBucket(steps); b <= last; b++) {
+            for (int e = bucketStarts[b], end = bucketStarts[b + 1]; e < end; e++) {
+                int i = entries[e];
+                if (inBirdColumn(i, steps) && blocks(i, birdY)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    float low(int handle) {
+        return lows[handle];
+    }
+
+    float high(int handle) {
+        return highs[handle];
+    }
+
+    boolean solidBand(int handle) {
+        return solidBands[handle];
+    }
+
+    /**
+     * Whether a bird at height {@code birdY} overlaps the solid part of the
+     * obstacle {@code handle}, ignoring x.
+     */
+    public boolean blocks(int handle, float birdY) {
+        return Obstacle.blocks(solidBands[handle], lows[handle], highs[handle], birdY);
+    }
+
+    /**
+     * Number of obstacles whose left edge has crossed
+     * {@link CourseGeometry#SCORE_LINE_X} after {@code steps} steps, counting
+     * on from {@code passed}, a count from an earlier step (0 at the start).
+     */
+    public int passed(int passed, long steps) {
+        int count = passed;
+        double shift = steps * (double) CourseGeometry.PIPE_SPEED_PER_STEP;
+        while (count < xs.length && xs[count] - shift < CourseGeometry.SCORE_LINE_X) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Score for having passed the first {@code passed} obstacles; only pipes count.
+     */
+    public int score(int passed) {
+        return scoringBefore[passed];
+    }
+
+    private boolean inBirdColumn(int i, long steps) {
+        double x = xs[i] - steps * (double) CourseGeometry.PIPE_SPEED_PER_STEP;
+        return CourseGeometry.BIRD_X + CourseGeometry.BIRD_WIDTH >= x
+            && CourseGeometry.BIRD_X < x + widths[i];
+    }
+
+    // The bucket range is widened by one on each side so rounding in the
+    // course-to-bucket conversion can never hide an obstacle; the exact test
+    // is inBirdColumn.
+    private int firstQueriedBucket(long steps) {
+        double left = CourseGeometry.BIRD_X + steps * (double) CourseGeometry.PIPE_SPEED_PER_STEP;
+        return clampBucket(bucketOf(left) - 1);
+    }
+
+    private int lastQueriedBucket(long steps) {
+        double right = CourseGeometry.BIRD_X + CourseGeometry.BIRD_WIDTH
+            + steps * (double) CourseGeometry.PIPE_SPEED_PER_STEP;
+        return clampBucket(bucketOf(right) + 1);
+    }
+
+    private int bucketOf(double x) {
+        double bucket = Math.floor((x - origin) / bucketWidth);
+        return (int) Math.max(-1d, Math.min(Integer.MAX_VALUE - 1, bucket));
+    }
+
+    private int clampBucket(int bucket) {
+        return Math.max(0, Math.min(bucketStarts.length - 2, bucket));
+    }
+}
@@ -0,0 +1,172 @@
+package com.xili7.game.sim;
+
+/**
+ * One bird flying one course, advanced in fixed steps with no rendering or
+ * LibGDX dependency.
+ *
+ * Each {@link #step(boolean)} is {@link CourseGeometry#STEP_SECONDS} of game
+ * time: apply the flap, scroll the pipes and count the ones passed, move
+ * the bird, then check the ceiling, the ground and the pipes. The same seed
+ * and the same flap on the same steps always give the same run, so screens
+ * render from it and servers, bots, replays and benchmarks run it headless.
+ *
+ * Not thread-safe; one simulation belongs to one thread at a time.
+ */
+public final class Simulation {
+    public enum Phase {
+        /** Waiting for the first flap (or {@link #start()}); nothing moves. */
+        READY,
+        RUNNING,
+        /** Hit the ground or a pipe; further steps do nothing. */
+        DEAD
+    }
+
+    /**
+     * Copy of the mutable part of a simulation, enough to resume it with
+     * {@link #restore}.
+     */
+    public record State(long tick, float birdY, float velocity, int score, Phase phase) {
+    }
+
+    /**
+     * Identifies the rules {@link #step(boolean)} implements; recorded with
+     * every replay. Bump it whenever a change would make an old input log
+     * play out differently.
+     */
+    public static final int PHYSICS_VERSION = 1;
+
+    public static final float GRAVITY = 400f;
+    public static final float FLAP_VELOCITY = 130f;
+    public static final float START_Y = 0.5f * CourseGeometry.WORLD_HEIGHT;
+
+    private static final float CEILING_Y = CourseGeometry.WORLD_HEIGHT - CourseGeometry.BIRD_HEIGHT;
+
+    private final Course course;
+
+    private long tick;
+    private float birdY = START_Y;
+    private float velocity;
+    private int score;
+    private Phase phase = Phase.READY;
+
+    public Simulation(long seed) {
+        this(new Course(seed));
+    }
+
+    public Simulation(Course course) {
+        this.course = course;
+    }
+
+    public Course course() {
+        return course;
+    }
+
+    /**
+     * Course steps taken since the run began.
+     */
+    public long tick() {
+        return tick;
+    }
+
+    public float birdY() {
+        return birdY;
+    }
+
+    public float velocity() {
+        return velocity;
+    }
+
+    public int score() {
+        return score;
+    }
+
+    public Phase phase() {
+        return phase;
+    }
+
+    public boolean isAlive() {
+        return phase != Phase.DEAD;
+    }
+
+    /**
+     * Starts the run without a flap (the bird begins falling), e.g. at a
+     * server-scheduled start time.
+     */
+    public void start() {
+        if (phase == Phase.READY) {
+            phase = Phase.RUNNING;
+        }
+    }
+
+    /**
+     * Advances one course step. A flap while {@link Phase#READY} starts the
+     * run; without one, a ready simulation stays where it is.
+     *
+     * @return whether the bird is still alive
+     */
+    public boolean step(boolean flap) {
+        if (phase == Phase.DEAD) {
+            return false;
+        }
+        if (flap) {
+            phase = Phase.RUNNING;
+            velocity = FLAP_VELOCITY;
+        } else if (phase == Phase.READY) {
+            return true;
+        }
+
+        tick++;
+        while (CourseGeometry.pipeX(score, tick) < CourseGeometry.SCORE_LINE_X) {
+            score++;
+        }
+
+        velocity -= GRAVITY * CourseGeometry.STEP_SECONDS;
+        birdY += velocity * CourseGeometry.STEP_SECONDS;
+
+        if (birdY >= CEILING_Y) {
+            birdY = CEILING_Y;
+            velocity = 0f;
+        }
+        if (birdY < CourseGeometry.GROUND_Y || hitsPipe(course, tick, score, birdY)) {
+            phase = Phase.DEAD;
+            birdY = CourseGeometry.GROUND_Y;
+        }
+        return phase != Phase.DEAD;
+    }
+
+    public State state() {
+        return new State(tick, birdY, velocity, score, phase);
+    }
+
+    public void restore(State state) {
+        tick = state.tick();
+        birdY = state.birdY();
+        velocity = state.velocity();
+        score = state.score();
+        phase = state.phase();
+    }
+
+    /**
+     * Whether a bird at height {@code birdY} overlaps a pipe of {@code course}
+     * after {@code tick} steps. Only the last pipe passed and the next one can
+     * reach the bird's column.
+     */
+    public static boolean hitsPipe(Course course, long tick, float birdY) {
+        return hitsPipe(course, tick, CourseGeometry.maxScoreAt(tick), birdY);
+    }
+
+    private static boolean hitsPipe(Course course, long tick, int passed, float birdY) {
+        for (long pipe = Math.max(0L, passed - 1L); pipe <= passed; pipe++) {
+            double x = CourseGeometry.pipeX(pipe, tick);
+            if (CourseGeometry.BIRD_X + CourseGeometry.BIRD_WIDTH >= x
+                && CourseGeometry.BIRD_X < x + CourseGeometry.PIPE_WIDTH) {
+                float gapY = course.gapY(pipe);
+                if (birdY < gapY + CourseGeometry.PIPE_HEAD_HEIGHT
+                    || birdY + CourseGeometry.BIRD_HEIGHT > gapY + CourseGeometry.PIPE_GAP) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
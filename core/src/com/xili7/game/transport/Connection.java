@@ -0,0 +1,407 @@
+package com.xili7.game.transport;
+
+import com.xili7.game.diagnostics.FlightEvents;
+import com.xili7.game.metrics.ServerMetrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One newline-framed text connection, shared by clients and servers.
+ *
+ * Architecture:
+ * - a read thread that applies ingress limits, decodes lines with a
+ *   {@link LineCodec} and hands messages to a {@link Listener}
+ * - a bounded outbound queue drained by a write thread, so callers of
+ *   {@link #send(String)} never block on the socket; lines queued together
+ *   are written with a single flush
+ * - one {@link Listener#onClosed(Throwable)} call, after the last message
+ *
+ * Sink connections ({@link #sink}) have no socket and no threads: sends are
+ * written synchronously to a {@link Writer}, which lets benchmarks drive the
+ * same code without the network.
+ *
+ * @param <M> decoded message type
+ */
+public final class Connection<M> {
+    // Identity-compared sentinel, never equal to a line a caller could send.
+    private static final String CLOSE_MARKER = new String("<close>");
+    private static final int WRITE_BATCH = 64;
+
+    /**
+     * Raised by default when the peer sends a line the codec rejects.
+     */
+    public static final class MalformedMessageException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public MalformedMessageException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Receives the decoded messages of one connection on its read thread.
+     */
+    public interface Listener<M> {
+        void onMessage(M message) throws Exception;
+
+        /**
+         * Called for lines the codec rejects. Throwing closes the connection,
+         * returning skips the line.
+         */
+        default void onDecodeError(String line, RuntimeException error) throws IOException {
+            throw new MalformedMessageException("Malformed message: " + line, error);
+        }
+
+        /**
+         * Called once when the connection is closed, with the failure that closed it (or null).
+         */
+        default void onClosed(Throwable cause) {
+        }
+    }
+
+    /**
+     * Per-connection limits and instrumentation.
+     *
+     * @param ingressPolicy inbound flood control, or null for none
+     * @param outboundCapacity queued lines before the peer counts as stalled and is disconnected
+     * @param metrics where traffic is recorded, or null
+     */
+    public record Options(IngressLimiter.Policy ingressPolicy, int outboundCapacity, ServerMetrics metrics) {
+        public static Options client() {
+            return new Options(null, 1024, null);
+        }
+
+        public static Options server(IngressLimiter.Policy ingressPolicy, ServerMetrics metrics) {
+            return new Options(ingressPolicy, 512, metrics);
+        }
+    }
+
+    private final String id;
+    private final Socket socket;
+    private final LineCodec<M> codec;
+    private final Options options;
+    private final ServerMetrics metrics;
+    private final BufferedReader input;
+    private final IngressLimiter ingress;
+    private final Writer output;
+    private final BlockingQueue<String> outbound;
+    private final long connectedAtMillis = System.currentTimeMillis();
+    private final AtomicBoolean closedNotified = new AtomicBoolean();
+
+    private volatile Listener<M> listener;
+    private volatile boolean open = true;
+    private volatile boolean closing;
+    private volatile Throwable closeCause;
+    // Single writer: the write thread, or senders serialized on the sink writer.
+    private volatile long bytesWritten;
+    private Thread readThread;
+    private Thread writeThread;
+
+    public Connection(String id, Socket socket, LineCodec<M> codec, Options options) throws IOException {
+        this(
+            id,
+            socket,
+            codec,
+            options,
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)),
+            new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))
+        );
+    }
+
+    private Connection(String id, Socket socket, LineCodec<M> codec, Options options, BufferedReader input,
+                       Writer output) {
+        this.id = id;
+        this.socket = socket;
+        this.codec = codec;
+        this.options = options;
+        this.metrics = options.metrics();
+        this.input = input;
+        this.ingress = options.ingressPolicy() == null ? null : new IngressLimiter(input, options.ingressPolicy(),
+            metrics == null ? null : metrics.ingressDropped, metrics == null ? null : metrics.ingressCollapsed);
+        this.output = output;
+        this.outbound = socket == null ? null : new ArrayBlockingQueue<>(Math.max(1, options.outboundCapacity()));
+    }
+
+    /**
+     * Creates a socket-less connection whose sends go synchronously to {@code sink}.
+     * Inbound lines are fed with {@link #handleLine(String)}.
+     */
+    public static <M> Connection<M> sink(String id, Writer sink, LineCodec<M> codec, Options options) {
+        return new Connection<>(id, null, codec, options, new BufferedReader(new StringReader("")), sink);
+    }
+
+    /**
+     * Starts the read and write threads. Lines sent before this call are
+     * queued and go out first.
+     */
+    public synchronized void start(Listener<M> connectionListener) {
+        this.listener = connectionListener;
+        if (socket == null || readThread != null) {
+            return;
+        }
+
+        writeThread = new Thread(this::writeLoop, id + "-writer");
+        writeThread.setDaemon(true);
+        writeThread.start();
+
+        readThread = new Thread(this::readLoop, id);
+        readThread.start();
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for the read thread to end, and with
+     * it the listener's {@link Listener#onClosed}. Returns at once for a sink,
+     * a connection never started, or when called on the read thread itself.
+     */
+    public void awaitClosed(long timeoutMillis) throws InterruptedException {
+        Thread reader;
+        synchronized (this) {
+            reader = readThread;
+        }
+        if (reader != null && reader != Thread.currentThread()) {
+            reader.join(timeoutMillis);
+        }
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long connectedAtMillis() {
+        return connectedAtMillis;
+    }
+
+    public String remoteAddress() {
+        return socket == null ? "sink" : String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    public long droppedLines() {
+        return ingress == null ? 0L : ingress.droppedLines();
+    }
+
+    public int outboundDepth() {
+        return outbound == null ? 0 : outbound.size();
+    }
+
+    /**
+     * Bytes flushed to the peer so far.
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Queues one line for sending. Returns false when the connection is closed
+     * or its outbound queue is full, in which case it is closed.
+     */
+    public boolean send(String line) {
+        if (!open) {
+            return false;
+        }
+        if (outbound == null) {
+            return writeDirect(line);
+        }
+        if (!outbound.offer(line)) {
+            if (metrics != null) {
+                metrics.outboundOverflows.increment();
+            }
+            fail(new IOException("Outbound queue full (" + options.outboundCapacity() + " lines)"));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Closes after the lines already queued have been written.
+     */
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        closing = true;
+        if (outbound == null || writeThread == null || !outbound.offer(CLOSE_MARKER)) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Closes immediately, discarding queued lines.
+     */
+    public void closeNow() {
+        open = false;
+        if (socket == null) {
+            notifyClosed();
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // ignored
+        }
+        Thread writer = writeThread;
+        if (writer != null) {
+            writer.interrupt();
+        }
+        if (readThread == null) {
+            notifyClosed();
+        }
+    }
+
+    /**
+     * Processes one inbound line as if it had been read from the socket:
+     * metrics, decoding and dispatch to the listener.
+     */
+    public void handleLine(String line) throws Exception {
+        if (metrics != null) {
+            metrics.recordIn(line);
+        }
+
+        FlightEvents.MessageParse parseEvent = new FlightEvents.MessageParse();
+        parseEvent.begin();
+        long parseStart = System.nanoTime();
+        M message;
+        try {
+            message = codec.decode(line);
+        } catch (RuntimeException decodeError) {
+            listener.onDecodeError(line, decodeError);
+            return;
+        } finally {
+            if (metrics != null) {
+                metrics.parseNanos.recordSince(parseStart);
+            }
+        }
+        parseEvent.end();
+        if (parseEvent.shouldCommit()) {
+            parseEvent.command = codec.command(message);
+            parseEvent.bytes = ServerMetrics.lineBytes(line);
+            parseEvent.commit();
+        }
+
+        listener.onMessage(message);
+    }
+
+    private void readLoop() {
+        try {
+            String line;
+            while (open && (line = ingress != null ? ingress.readLine() : input.readLine()) != null) {
+                handleLine(line);
+            }
+        } catch (Exception e) {
+            if (open) {
+                closeCause = e;
+            }
+        } finally {
+            if (!closing) {
+                closeNow();
+            }
+            // On a graceful close the write thread closes the socket once the queue is flushed.
+            notifyClosed();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(WRITE_BATCH);
+        try {
+            boolean sawCloseMarker = false;
+            while (!sawCloseMarker) {
+                batch.add(outbound.take());
+                outbound.drainTo(batch, WRITE_BATCH - 1);
+
+                FlightEvents.SlowSend sendEvent = new FlightEvents.SlowSend();
+                sendEvent.begin();
+                int bytes = 0;
+                for (String line : batch) {
+                    if (line == CLOSE_MARKER) {
+                        sawCloseMarker = true;
+                        break;
+                    }
+                    output.write(line);
+                    output.write('\n');
+                    int lineBytes = ServerMetrics.lineBytes(line);
+                    bytes += lineBytes;
+                    if (metrics != null) {
+                        metrics.recordOut(line, lineBytes);
+                    }
+                }
+                output.flush();
+                bytesWritten += bytes;
+                sendEvent.end();
+                if (sendEvent.shouldCommit()) {
+                    sendEvent.playerId = id;
+                    sendEvent.command = IngressLimiter.peekCommand(batch.get(0));
+                    sendEvent.bytes = bytes;
+                    sendEvent.commit();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // closeNow() interrupts the writer.
+        } catch (IOException e) {
+            if (open) {
+                if (metrics != null) {
+                    metrics.sendFailures.increment();
+                }
+                closeCause = e;
+            }
+        } finally {
+            closeNow();
+        }
+    }
+
+    private boolean writeDirect(String line) {
+        int lineBytes = ServerMetrics.lineBytes(line);
+        try {
+            synchronized (output) {
+                output.write(line);
+                output.write('\n');
+                output.flush();
+                bytesWritten += lineBytes;
+            }
+            if (metrics != null) {
+                metrics.recordOut(line, lineBytes);
+            }
+            return true;
+        } catch (IOException e) {
+            if (metrics != null) {
+                metrics.sendFailures.increment();
+            }
+            fail(e);
+            return false;
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (closeCause == null) {
+            closeCause = cause;
+        }
+        closeNow();
+    }
+
+    private void notifyClosed() {
+        if (!closedNotified.compareAndSet(false, true)) {
+            return;
+        }
+        Listener<M> current = listener;
+        if (current != null) {
+            current.onClosed(closeCause);
+        }
+    }
+}
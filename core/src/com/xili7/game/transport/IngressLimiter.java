@@ -0,0 +1,323 @@
+package com.xili7.game.transport;
+
+import com.xili7.game.metrics.Counter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-connection ingress flood control for line based text protocols.
+ *
+ * Wraps the connection reader and hands out only the lines that fit the
+ * connection budget:
+ * - Full-state commands (STATE/INPUT) that arrive in a burst are collapsed
+ *   newest-wins before parsing, so only the latest buffered line is handled.
+ * - Every command has a token bucket (rate per second + burst).
+ *   Lines over budget are dropped without being parsed.
+ * - A connection that keeps exceeding its budget is disconnected.
+ *
+ * Not thread-safe: one instance per connection, used by its read thread.
+ */
+public final class IngressLimiter {
+    public static final String PROPERTY_PREFIX = "flappy.ingress.";
+
+    // Longest line looked at while collapsing; longer ones are left to readLine.
+    private static final int MAX_PEEK_CHARS = 8192;
+
+    /**
+     * Token bucket budget for a single command.
+     */
+    public record Budget(double perSecond, int burst) {
+        public Budget {
+            if (perSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Invalid budget: " + perSecond + "/" + burst);
+            }
+        }
+
+        /**
+         * Parses "rate/burst", e.g. "90/30".
+         */
+        public static Budget parse(String value) {
+            String[] parts = value.trim().split("/", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Budget must be rate/burst: " + value);
+            }
+            return new Budget(Double.parseDouble(parts[0]), Integer.parseInt(parts[1]));
+        }
+    }
+
+    /**
+     * Limits shared by every connection of a server.
+     *
+     * @param budgets per-command budgets, keyed by upper-case command
+     * @param defaultBudget budget for commands without an explicit entry
+     * @param collapsible commands whose bursts are collapsed newest-wins
+     * @param maxDropsPerWindow dropped lines tolerated inside one abuse window
+     * @param abuseWindowMillis length of the abuse window
+     */
+    public record Policy(Map<String, Budget> budgets,
+                         Budget defaultBudget,
+                         Set<String> collapsible,
+                         int maxDropsPerWindow,
+                         long abuseWindowMillis) {
+        public Policy {
+            budgets = Map.copyOf(budgets);
+            collapsible = Set.copyOf(collapsible);
+        }
+
+        /**
+         * Defaults sized for 60 FPS clients with plenty of headroom.
+         */
+        public static Policy defaults() {
+            return new Policy(
+                Map.of(
+                    "STATE", new Budget(90, 30),
+                    "INPUT", new Budget(90, 30),
+                    "JUMP", new Budget(20, 10),
+                    "JOIN", new Budget(1, 3),
+                    "CREATE_ROOM", new Budget(2, 5),
+                    "JOIN_ROOM", new Budget(2, 5),
+                    "SUBMIT_RUN", new Budget(1, 3),
+                    "GET_GHOST", new Budget(1, 3),
+                    "GET_LEADERBOARD", new Budget(2, 5),
+                    "GET_RANK", new Budget(2, 5)
+                ),
+                new Budget(20, 20),
+                Set.of("STATE", "INPUT"),
+                600,
+                10_000L
+            );
+        }
+
+        /**
+         * Applies overrides from system properties:
+         * - flappy.ingress.COMMAND=rate/burst (e.g. -Dflappy.ingress.STATE=120/40)
+         * - flappy.ingress.default=rate/burst
+         * - flappy.ingress.maxDrops=count
+         * - flappy.ingress.windowMillis=millis
+         */
+        public static Policy fromSystemProperties(Policy base) {
+            Map<String, Budget> budgets = new HashMap<>(base.budgets());
+            Budget defaultBudget = base.defaultBudget();
+            int maxDrops = base.maxDropsPerWindow();
+            long windowMillis = base.abuseWindowMillis();
+
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (!name.startsWith(PROPERTY_PREFIX)) {
+                    continue;
+                }
+                String key = name.substring(PROPERTY_PREFIX.length());
+                String value = System.getProperty(name);
+                switch (key) {
+                    case "default" -> defaultBudget = Budget.parse(value);
+                    case "maxDrops" -> maxDrops = Integer.parseInt(value.trim());
+                    case "windowMillis" -> windowMillis = Long.parseLong(value.trim());
+                    default -> budgets.put(key.toUpperCase(Locale.ROOT), Budget.parse(value));
+                }
+            }
+            return new Policy(budgets, defaultBudget, base.collapsible(), maxDrops, windowMillis);
+        }
+
+        public Budget budgetFor(String command) {
+            return budgets.getOrDefault(command, defaultBudget);
+        }
+    }
+
+    /**
+     * Raised when a connection exceeds the abuse policy and must be closed.
+     */
+    public static final class FloodException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public FloodException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefillNanos;
+
+        private TokenBucket(Budget budget, long nowNanos) {
+            this.tokensPerNano = budget.perSecond() / 1_000_000_000d;
+            this.capacity = budget.burst();
+            this.tokens = capacity;
+            this.lastRefillNanos = nowNanos;
+        }
+
+        private boolean tryAcquire(long nowNanos) {
+            long elapsed = nowNanos - lastRefillNanos;
+            if (elapsed > 0) {
+                tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+                lastRefillNanos = nowNanos;
+            }
+            if (tokens >= 1d) {
+                tokens -= 1d;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final BufferedReader reader;
+    private final Policy policy;
+    private final Counter droppedCounter;
+    private final Counter collapsedCounter;
+    private final Map<String, TokenBucket> buckets = new HashMap<>();
+
+    private final StringBuilder peeked = new StringBuilder();
+    private String lookahead;
+    private long windowStartNanos;
+    private int windowDrops;
+    private long droppedLines;
+    private long collapsedLines;
+
+    public IngressLimiter(BufferedReader reader, Policy policy) {
+        this(reader, policy, null, null);
+    }
+
+    /**
+     * @param droppedCounter   incremented for every dropped line as it is dropped, or {@code null}
+     * @param collapsedCounter incremented for every collapsed line as it is collapsed, or {@code null}
+     */
+    public IngressLimiter(BufferedReader reader, Policy policy, Counter droppedCounter, Counter collapsedCounter) {
+        this.reader = reader;
+        this.policy = policy;
+        this.droppedCounter = droppedCounter;
+        this.collapsedCounter = collapsedCounter;
+        this.windowStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the next line that fits the budget, or null at end of stream.
+     *
+     * @throws FloodException when the connection keeps exceeding its budget
+     */
+    public String readLine() throws IOException {
+        while (true) {
+            String line = nextCollapsed();
+            if (line == null) {
+                return null;
+            }
+
+            String command = peekCommand(line);
+            long now = System.nanoTime();
+            if (bucketFor(command, now).tryAcquire(now)) {
+                return line;
+            }
+
+            droppedLines++;
+            if (droppedCounter != null) {
+                droppedCounter.increment();
+            }
+            registerDrop(command, now);
+        }
+    }
+
+    public long droppedLines() {
+        return droppedLines;
+    }
+
+    public long collapsedLines() {
+        return collapsedLines;
+    }
+
+    /**
+     * Extracts the command of a raw line without parsing its arguments.
+     */
+    public static String peekCommand(String line) {
+        int end = line.indexOf('|');
+        String command = end < 0 ? line : line.substring(0, end);
+        return command.trim().toUpperCase(Locale.ROOT);
+    }
+
+    private String nextCollapsed() throws IOException {
+        String line;
+        if (lookahead != null) {
+            line = lookahead;
+            lookahead = null;
+        } else {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+
+        String command = peekCommand(line);
+        if (!policy.collapsible().contains(command)) {
+            return line;
+        }
+
+        // Newest-wins: while complete lines are already buffered, a newer
+        // full-state line of the same command replaces the current one.
+        String next;
+        while ((next = bufferedLine()) != null) {
+            if (command.equals(peekCommand(next))) {
+                collapsedLines++;
+                if (collapsedCounter != null) {
+                    collapsedCounter.increment();
+                }
+                line = next;
+            } else {
+                lookahead = next;
+                break;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * The next line if all of it, newline included, can be read without
+     * blocking; otherwise null, with nothing consumed. {@code ready()} only
+     * promises one character, so a partial line must not reach readLine.
+     */
+    private String bufferedLine() throws IOException {
+        peeked.setLength(0);
+        reader.mark(MAX_PEEK_CHARS + 1);
+        while (peeked.length() < MAX_PEEK_CHARS && reader.ready()) {
+            int c = reader.read();
+            if (c < 0) {
+                break;
+            }
+            if (c == '\n') {
+                int end = peeked.length();
+                if (end > 0 && peeked.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                return peeked.substring(0, end);
+            }
+            peeked.append((char) c);
+        }
+        reader.reset();
+        return null;
+    }
+
+    private TokenBucket bucketFor(String command, long nowNanos) {
+        TokenBucket bucket = buckets.get(command);
+        if (bucket == null) {
+            // Unknown commands share one bucket so random names cannot grow the map.
+            String key = policy.budgets().containsKey(command) ? command : "";
+            bucket = buckets.computeIfAbsent(key, ignored -> new TokenBucket(policy.budgetFor(command), nowNanos));
+        }
+        return bucket;
+    }
+
+    private void registerDrop(String command, long nowNanos) throws FloodException {
+        long windowNanos = policy.abuseWindowMillis() * 1_000_000L;
+        if (nowNanos - windowStartNanos > windowNanos) {
+            windowStartNanos = nowNanos;
+            windowDrops = 0;
+        }
+        windowDrops++;
+        if (windowDrops > policy.maxDropsPerWindow()) {
+            throw new FloodException("Ingress budget exceeded (" + command + "), "
+                + windowDrops + " lines dropped in " + policy.abuseWindowMillis() + " ms");
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.xili7.game.transport;
+
+/**
+ * Decodes one newline-framed text line into a protocol message.
+ *
+ * @param <M> decoded message type
+ */
+public interface LineCodec<M> {
+    /**
+     * Decodes a line without its terminator.
+     *
+     * @throws RuntimeException when the line is malformed
+     */
+    M decode(String line);
+
+    /**
+     * Command name of a decoded message, used for diagnostics.
+     */
+    String command(M message);
+}
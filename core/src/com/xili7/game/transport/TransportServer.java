@@ -0,0 +1,171 @@
+package com.xili7.game.transport;
+
+import com.xili7.game.diagnostics.FlightEvents;
+import com.xili7.game.metrics.ServerMetrics;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Accept loop and connection registry shared by the game servers.
+ *
+ * Every accepted socket becomes a {@link Connection}; the {@link Acceptor}
+ * decides which listener handles it. Connection counts and lifecycle
+ * events are recorded here, traffic by the connections themselves.
+ *
+ * @param <M> decoded message type
+ */
+public final class TransportServer<M> {
+    private static final long CLOSE_WAIT_MILLIS = 2_000L;
+
+    /**
+     * Binds a new connection to its listener. May send lines on the
+     * connection before returning (they go out first). Returning null
+     * rejects it: queued lines are flushed and the connection is closed.
+     */
+    public interface Acceptor<M> {
+        Connection.Listener<M> accept(Connection<M> connection);
+    }
+
+    private final String name;
+    private final int port;
+    private final LineCodec<M> codec;
+    private final Connection.Options options;
+    private final Supplier<String> connectionIds;
+    private final Acceptor<M> acceptor;
+    private final Set<Connection<M>> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    public TransportServer(String name, int port, LineCodec<M> codec, Connection.Options options,
+                           Supplier<String> connectionIds, Acceptor<M> acceptor) {
+        this.name = name;
+        this.port = port;
+        this.codec = codec;
+        this.options = options;
+        this.connectionIds = connectionIds;
+        this.acceptor = acceptor;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        serverSocket = new ServerSocket(port);
+
+        acceptThread = new Thread(this::acceptLoop, name + "-accept");
+        acceptThread.start();
+    }
+
+    /**
+     * Stops accepting and closes every connection, waiting (a bounded time)
+     * until the listeners have been told, so whatever they report closes to
+     * may be shut once this returns.
+     */
+    public synchronized void stop() {
+        running = false;
+
+        if (serverSocket != null && !serverSocket.isClosed()) {
+            try {
+                serverSocket.close();
+            } catch (IOException ignored) {
+                // ignored
+            }
+        }
+        if (acceptThread != null) {
+            acceptThread.interrupt();
+        }
+
+        // Closing removes a connection from the set; keep hold of them to wait for.
+        List<Connection<M>> open = new ArrayList<>(connections);
+        for (Connection<M> connection : open) {
+            connection.closeNow();
+        }
+        long deadline = System.currentTimeMillis() + CLOSE_WAIT_MILLIS;
+        try {
+            for (Connection<M> connection : open) {
+                connection.awaitClosed(Math.max(1L, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connections.clear();
+    }
+
+    public int localPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? -1 : socket.getLocalPort();
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                open(socket);
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println(name + " accept loop error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void open(Socket socket) throws IOException {
+        Connection<M> connection = new Connection<>(connectionIds.get(), socket, codec, options);
+        Connection.Listener<M> listener = acceptor.accept(connection);
+        if (listener == null) {
+            connection.start(new Connection.Listener<>() {
+                @Override
+                public void onMessage(M message) {
+                    // Rejected connections ignore input until closed.
+                }
+            });
+            connection.close();
+            return;
+        }
+
+        ServerMetrics metrics = options.metrics();
+        if (metrics != null) {
+            metrics.connectionsOpened.increment();
+        }
+        FlightEvents.connection(connection.id(), connection.remoteAddress(), "opened");
+        connections.add(connection);
+
+        connection.start(new Connection.Listener<>() {
+            @Override
+            public void onMessage(M message) throws Exception {
+                listener.onMessage(message);
+            }
+
+            @Override
+            public void onDecodeError(String line, RuntimeException error) throws IOException {
+                listener.onDecodeError(line, error);
+            }
+
+            @Override
+            public void onClosed(Throwable cause) {
+                connections.remove(connection);
+                if (metrics != null) {
+                    metrics.connectionsClosed.increment();
+                }
+                FlightEvents.connection(connection.id(), connection.remoteAddress(), "closed");
+                listener.onClosed(cause);
+            }
+        });
+    }
+}
@@ -0,0 +1,161 @@
+package com.xili7.game.loadtest;
+
+import com.xili7.game.metrics.Histogram;
+import com.xili7.game.online.MessageParser.PlayerState;
+import com.xili7.game.online.OnlineClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simulated player driving a real {@link OnlineClient}.
+ *
+ * The STATE x field carries a per-bot sequence number, which the server
+ * relays untouched (it validates scores, not x). Every bot remembers when
+ * it sent each sequence, so the receiving peer can compute relay latency
+ * (STATE) and snapshot staleness (BULK_STATE) against the sender's clock;
+ * all bots share one JVM clock. The send times and the sequence are read by
+ * the peer's thread, so both are published through volatile writes.
+ */
+final class Bot {
+    private static final int SEND_HISTORY = 4096;
+
+    private final String label;
+    private final OnlineClient client;
+    private final AtomicLongArray sentAtNanos = new AtomicLongArray(SEND_HISTORY);
+    private final Histogram relayLatency;
+    private final Histogram snapshotStaleness;
+    private final AtomicLong received;
+
+    private final CompletableFuture<String> roomReady = new CompletableFuture<>();
+    private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+    private volatile Bot peer;
+    // Written only by this bot's thread, after the send time it covers.
+    private volatile int sequence;
+    private float y = 100f;
+    private float velocity;
+    private long sent;
+
+    Bot(String label, String host, int port, Histogram relayLatency, Histogram snapshotStaleness, AtomicLong received) {
+        this.label = label;
+        this.client = new OnlineClient(host, port);
+        this.relayLatency = relayLatency;
+        this.snapshotStaleness = snapshotStaleness;
+        this.received = received;
+    }
+
+    void connect() throws IOException {
+        client.setListener(new OnlineClient.Listener() {
+            @Override
+            public void onRoomCreated(String roomId) {
+                roomReady.complete(roomId);
+            }
+
+            @Override
+            public void onRoomJoined(String roomId) {
+                roomReady.complete(roomId);
+            }
+
+            @Override
+            public void onStart() {
+                started.complete(null);
+            }
+
+            @Override
+            public void onPlayerState(PlayerState state) {
+                received.incrementAndGet();
+                recordFromPeer(state, relayLatency);
+            }
+
+            @Override
+            public void onSnapshot(List<PlayerState> states) {
+                received.incrementAndGet();
+                for (PlayerState state : states) {
+                    recordFromPeer(state, snapshotStaleness);
+                }
+            }
+
+            @Override
+            public void onServerError(String errorMessage) {
+                roomReady.completeExceptionally(new IOException(label + ": " + errorMessage));
+            }
+
+            @Override
+            public void onError(Exception exception) {
+                roomReady.completeExceptionally(exception);
+                started.completeExceptionally(exception);
+            }
+        });
+        client.connect();
+    }
+
+    CompletableFuture<String> createRoom() {
+        client.createRoom();
+        return roomReady;
+    }
+
+    CompletableFuture<String> joinRoom(String roomId) {
+        client.joinRoom(roomId);
+        return roomReady;
+    }
+
+    CompletableFuture<Void> started() {
+        return started;
+    }
+
+    void pairWith(Bot other) {
+        this.peer = other;
+    }
+
+    /**
+     * One 60 Hz frame: integrate a crude flap, send STATE and sometimes JUMP.
+     * Only called from the scheduler, never concurrently for the same bot.
+     */
+    void tick(float delta, double jumpProbability) {
+        if (!client.isConnected()) {
+            return;
+        }
+
+        if (ThreadLocalRandom.current().nextDouble() < jumpProbability || y < 40f) {
+            velocity = 130f;
+            client.sendJump();
+            sent++;
+        }
+        velocity -= 400f * delta;
+        y = Math.max(30f, Math.min(190f, y + velocity * delta));
+
+        int seq = sequence + 1;
+        sentAtNanos.set(seq & (SEND_HISTORY - 1), System.nanoTime());
+        sequence = seq;
+        client.sendState(seq, y, 0);
+        sent++;
+    }
+
+    long sent() {
+        return sent;
+    }
+
+    void disconnect() {
+        client.disconnect();
+    }
+
+    private void recordFromPeer(PlayerState state, Histogram histogram) {
+        Bot other = peer;
+        if (other == null || state.playerId().equals(client.getPlayerId())) {
+            return;
+        }
+        int seq = (int) state.x();
+        if (seq <= 0 || other.sequence - seq >= SEND_HISTORY) {
+            return;
+        }
+        long sentAt = other.sentAtNanos.get(seq & (SEND_HISTORY - 1));
+        if (sentAt != 0L) {
+            histogram.record(System.nanoTime() - sentAt);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.xili7.game.loadtest;
+
+import com.xili7.game.metrics.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator for {@link com.xili7.game.online.OnlineServer}.
+ *
+ * Opens pairs of bots (one CREATE_ROOM, one JOIN_ROOM), waits for START and
+ * then sends STATE at the configured rate plus occasional JUMPs. Prints relay
+ * latency and snapshot staleness percentiles, message throughput and, when
+ * the server runs as a child process (--spawn-server) or its pid is known
+ * (--server-pid), server CPU per room.
+ *
+ * Usage:
+ *   LoadGenerator [--host 127.0.0.1] [--port 7777] [--rooms 100] [--duration 30]
+ *                 [--rate 60] [--jump 0.02] [--ramp-ms 5] [--spawn-server] [--server-pid pid]
+ */
+public final class LoadGenerator {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private String host = "127.0.0.1";
+    private int port = 7777;
+    private int rooms = 100;
+    private int durationSeconds = 30;
+    private int rate = 60;
+    private double jumpProbability = 0.02;
+    private long rampMillis = 5;
+    private boolean spawnServer;
+    private long serverPid = -1;
+
+    private final Histogram relayLatency = new Histogram();
+    private final Histogram snapshotStaleness = new Histogram();
+    private final AtomicLong received = new AtomicLong();
+
+    private LoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parseArgs(args);
+        generator.run();
+        System.exit(0);
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--rooms" -> rooms = Integer.parseInt(args[++i]);
+                case "--duration" -> durationSeconds = Integer.parseInt(args[++i]);
+                case "--rate" -> rate = Integer.parseInt(args[++i]);
+                case "--jump" -> jumpProbability = Double.parseDouble(args[++i]);
+                case "--ramp-ms" -> rampMillis = Long.parseLong(args[++i]);
+                case "--spawn-server" -> spawnServer = true;
+                case "--server-pid" -> serverPid = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        Process serverProcess = spawnServer ? spawnServer() : null;
+        ProcessHandle server = serverProcess != null
+            ? serverProcess.toHandle()
+            : serverPid > 0 ? ProcessHandle.of(serverPid).orElse(null) : null;
+
+        List<Bot> bots = new ArrayList<>(rooms * 2);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        try {
+            System.out.printf(Locale.ROOT, "Connecting %d bots in %d rooms to %s:%d%n", rooms * 2, rooms, host, port);
+            for (int room = 0; room < rooms; room++) {
+                Bot creator = new Bot("B" + (room * 2), host, port, relayLatency, snapshotStaleness, received);
+                Bot joiner = new Bot("B" + (room * 2 + 1), host, port, relayLatency, snapshotStaleness, received);
+                creator.pairWith(joiner);
+                joiner.pairWith(creator);
+
+                creator.connect();
+                String roomId = creator.createRoom().get(10, TimeUnit.SECONDS);
+                joiner.connect();
+                joiner.joinRoom(roomId).get(10, TimeUnit.SECONDS);
+                creator.started().get(10, TimeUnit.SECONDS);
+                joiner.started().get(10, TimeUnit.SECONDS);
+
+                bots.add(creator);
+                bots.add(joiner);
+                if (rampMillis > 0) {
+                    Thread.sleep(rampMillis);
+                }
+            }
+
+            // Warm-up samples from the ramp are discarded.
+            relayLatency.snapshotAndReset();
+            snapshotStaleness.snapshotAndReset();
+            received.set(0);
+
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+            float delta = 1f / Math.max(1, rate);
+            for (Bot bot : bots) {
+                long offset = (long) (Math.random() * periodNanos);
+                scheduler.scheduleAtFixedRate(() -> bot.tick(delta, jumpProbability), offset, periodNanos,
+                    TimeUnit.NANOSECONDS);
+            }
+
+            Duration cpuBefore = cpuOf(server);
+            long started = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(durationSeconds));
+            double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+            Duration cpuAfter = cpuOf(server);
+
+            scheduler.shutdownNow();
+            long sent = 0;
+            for (Bot bot : bots) {
+                sent += bot.sent();
+            }
+            report(elapsedSeconds, sent, cpuBefore, cpuAfter);
+        } finally {
+            scheduler.shutdownNow();
+            for (Bot bot : bots) {
+                bot.disconnect();
+            }
+            if (serverProcess != null) {
+                serverProcess.destroy();
+            }
+        }
+    }
+
+    private void report(double elapsedSeconds, long sent, Duration cpuBefore, Duration cpuAfter) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "rooms=%d bots=%d duration=%.1fs rate=%dHz%n",
+            rooms, rooms * 2, elapsedSeconds, rate);
+        System.out.printf(Locale.ROOT, "sent      %,12d msgs  %,10.0f msg/s%n", sent, sent / elapsedSeconds);
+        System.out.printf(Locale.ROOT, "received  %,12d msgs  %,10.0f msg/s%n",
+            received.get(), received.get() / elapsedSeconds);
+        printLatency("relay latency (STATE)", relayLatency.snapshotAndReset());
+        printLatency("snapshot staleness", snapshotStaleness.snapshotAndReset());
+
+        if (cpuBefore != null && cpuAfter != null) {
+            double cpuSeconds = (cpuAfter.toNanos() - cpuBefore.toNanos()) / 1e9;
+            double utilisation = cpuSeconds / elapsedSeconds;
+            System.out.printf(Locale.ROOT, "server cpu %.2f cores total, %.3f ms cpu per room per second%n",
+                utilisation, utilisation * 1000d / Math.max(1, rooms));
+        } else {
+            System.out.println("server cpu n/a (use --spawn-server or --server-pid)");
+        }
+    }
+
+    private static void printLatency(String name, Histogram.Snapshot snapshot) {
+        StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-24s n=%-9d", name, snapshot.count()));
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ROOT, " p%s=%.2fms", trim(percentile * 100),
+                snapshot.percentile(percentile) / 1e6));
+        }
+        line.append(String.format(Locale.ROOT, " max=%.2fms", snapshot.max() / 1e6));
+        System.out.println(line);
+    }
+
+    private static String trim(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static Duration cpuOf(ProcessHandle process) {
+        return process == null ? null : process.info().totalCpuDuration().orElse(null);
+    }
+
+    /**
+     * Starts OnlineServer in a child JVM with the same classpath so its CPU can be measured separately.
+     */
+    private Process spawnServer() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+            "com.xili7.game.online.OnlineServer", Integer.toString(port))
+            .inheritIO()
+            .start();
+
+        long deadline = System.currentTimeMillis() + 10_000L;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress(host, port), 200);
+                return process;
+            } catch (IOException notYet) {
+                Thread.sleep(100);
+            }
+        }
+        process.destroy();
+        throw new IOException("Spawned server did not open port " + port);
+    }
+}
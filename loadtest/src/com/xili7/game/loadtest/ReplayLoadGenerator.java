@@ -0,0 +1,130 @@
+package com.xili7.game.loadtest;
+
+import com.xili7.game.metrics.Histogram;
+import com.xili7.game.metrics.MetricsRegistry;
+import com.xili7.game.replay.InputLog;
+import com.xili7.game.replay.ReplayVerifier;
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Throughput test for {@link ReplayVerifier}.
+ *
+ * Plays runs headless with an autopilot of varying skill (so run lengths
+ * vary like real ones), tampers with a fraction of the claimed scores, then
+ * submits everything to an in-process verifier at once and prints runs and
+ * course steps verified per second, latency percentiles and outcome counts.
+ *
+ * Usage:
+ *   ReplayLoadGenerator [--runs 20000] [--threads cores] [--tamper 0.1] [--seed 1]
+ */
+public final class ReplayLoadGenerator {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99};
+
+    private int runs = 20_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double tamperProbability = 0.1;
+    private long seed = 1L;
+
+    private ReplayLoadGenerator() {
+    }
+
+    public static void main(String[] args) {
+        ReplayLoadGenerator generator = new ReplayLoadGenerator();
+        generator.parseArgs(args);
+        generator.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs" -> runs = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--tamper" -> tamperProbability = Double.parseDouble(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    private void run() {
+        Random random = new Random(seed);
+        List<ReplayVerifier.Submission> submissions = new ArrayList<>(runs);
+        long expectedTampered = 0L;
+        for (int i = 0; i < runs; i++) {
+            InputLog log = new InputLog(random.nextLong());
+            int score = play(log, 0.002 + random.nextDouble() * 0.02, random);
+            if (random.nextDouble() < tamperProbability) {
+                score += 1 + random.nextInt(5);
+                expectedTampered++;
+            }
+            submissions.add(new ReplayVerifier.Submission(log, score));
+        }
+        System.out.printf(Locale.ROOT, "Verifying %,d runs (%,d tampered) on %d threads%n",
+            runs, expectedTampered, threads);
+
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram latency = new Histogram();
+        Map<ReplayVerifier.Outcome, Integer> outcomes = new EnumMap<>(ReplayVerifier.Outcome.class);
+        long steps = 0L;
+        long start = System.nanoTime();
+        try (ReplayVerifier verifier = new ReplayVerifier(threads, runs, registry)) {
+            List<CompletableFuture<ReplayVerifier.Result>> results = new ArrayList<>(runs);
+            for (ReplayVerifier.Submission submission : submissions) {
+                long submitted = System.nanoTime();
+                results.add(verifier.submit(submission.log(), submission.claimedScore())
+                    .whenComplete((result, error) -> latency.recordSince(submitted)));
+            }
+            for (CompletableFuture<ReplayVerifier.Result> future : results) {
+                ReplayVerifier.Result result = future.join();
+                outcomes.merge(result.outcome(), 1, Integer::sum);
+                steps += result.ticks();
+            }
+        }
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.ROOT, "elapsed   %.2fs%n", elapsedSeconds);
+        System.out.printf(Locale.ROOT, "runs      %,12d  %,12.0f runs/s  %,14.0f runs/min%n",
+            runs, runs / elapsedSeconds, runs * 60d / elapsedSeconds);
+        System.out.printf(Locale.ROOT, "steps     %,12d  %,12.0f steps/s%n", steps, steps / elapsedSeconds);
+        Histogram.Snapshot snapshot = latency.snapshot();
+        StringBuilder line = new StringBuilder("submit-to-result");
+        for (double percentile : PERCENTILES) {
+            line.append(String.format(Locale.ROOT, " p%d=%.2fms", (int) (percentile * 100),
+                snapshot.percentile(percentile) / 1e6));
+        }
+        System.out.println(line);
+        System.out.println("outcomes  " + outcomes);
+    }
+
+    /**
+     * Flies one run, aiming just above the bottom of the next gap and
+     * ignoring the plan with probability {@code slip} per step.
+     */
+    private static int play(InputLog log, double slip, Random random) {
+        Simulation simulation = new Simulation(log.seed());
+        simulation.start();
+        while (simulation.isAlive() && simulation.tick() < ReplayVerifier.MAX_TICKS) {
+            long tick = simulation.tick();
+            long pipe = CourseGeometry.pipeAhead(tick);
+            float target = simulation.course().gapY(pipe) + CourseGeometry.PIPE_HEAD_HEIGHT + 4f;
+            boolean flap = simulation.birdY() + simulation.velocity() * 0.1f < target;
+            if (random.nextDouble() < slip) {
+                flap = !flap;
+            }
+            if (flap) {
+                log.recordFlap(tick);
+            }
+            simulation.step(flap);
+        }
+        return simulation.score();
+    }
+}
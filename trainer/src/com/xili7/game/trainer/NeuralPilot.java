@@ -0,0 +1,83 @@
+package com.xili7.game.trainer;
+
+import com.xili7.game.sim.CourseGeometry;
+import com.xili7.game.sim.Simulation;
+
+import java.util.Random;
+
+/**
+ * Autopilot with a tiny fixed-topology network: four inputs, one hidden
+ * layer (softsign, x / (1 + |x|), much cheaper than tanh), one output that
+ * flaps when positive. The weights are the genome.
+ *
+ * Inputs, all scaled to roughly [-1, 1]:
+ * - bird height above the bottom of the gap ahead
+ * - vertical velocity
+ * - horizontal distance to that pipe
+ * - height change from that gap to the following one
+ *
+ * Immutable; one instance may fly any number of worlds concurrently.
+ */
+final class NeuralPilot {
+    static final int INPUTS = 4;
+
+    private final int hidden;
+    private final float[] weights;
+
+    private NeuralPilot(int hidden, float[] weights) {
+        this.hidden = hidden;
+        this.weights = weights;
+    }
+
+    static int genomeLength(int hidden) {
+        return (INPUTS + 1) * hidden + hidden + 1;
+    }
+
+    static NeuralPilot random(int hidden, Random random) {
+        float[] weights = new float[genomeLength(hidden)];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) random.nextGaussian();
+        }
+        return new NeuralPilot(hidden, weights);
+    }
+
+    /**
+     * Copy with every weight perturbed by Gaussian noise of {@code sigma}.
+     */
+    NeuralPilot mutate(float sigma, Random random) {
+        float[] child = weights.clone();
+        for (int i = 0; i < child.length; i++) {
+            child[i] += (float) (random.nextGaussian() * sigma);
+        }
+        return new NeuralPilot(hidden, child);
+    }
+
+    /**
+     * Decides whether a bird flaps on the next step.
+     *
+     * @param birdY    the bird's height
+     * @param velocity the bird's vertical velocity
+     * @param gapY     bottom of the gap of {@link CourseGeometry#pipeAhead}
+     * @param distance horizontal distance from the bird to that pipe
+     * @param nextGapY bottom of the gap after it
+     */
+    boolean flap(float birdY, float velocity, float gapY, float distance, float nextGapY) {
+        return decide((birdY - gapY) / CourseGeometry.WORLD_HEIGHT,
+            velocity / Simulation.FLAP_VELOCITY,
+            distance / CourseGeometry.WORLD_WIDTH,
+            (nextGapY - gapY) / CourseGeometry.WORLD_HEIGHT);
+    }
+
+    private boolean decide(float height, float velocity, float distance, float nextGap) {
+        float[] w = weights;
+        int offset = 0;
+        float output = 0f;
+        for (int h = 0; h < hidden; h++) {
+            float sum = w[offset] * height + w[offset + 1] * velocity + w[offset + 2] * distance
+                + w[offset + 3] * nextGap + w[offset + 4];
+            offset += INPUTS + 1;
+            output += w[(INPUTS + 1) * hidden + h] * (sum / (1f + Math.abs(sum)));
+        }
+        return output + w[w.length - 1] > 0f;
+    }
+}
@@ -0,0 +1,160 @@
+package com.xili7.game.trainer;
+
+import com.xili7.game.sim.CourseGeometry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless neuroevolution of {@link NeuralPilot}s on the real simulation
+ * (same gravity, flap velocity, gap and 5 ms step as the game); needs no
+ * display or GPU.
+ *
+ * Every generation flies each pilot over the same fresh set of seeded
+ * courses (see {@link WorldRunner}). A pilot's fitness is the mean number of
+ * steps it survived; the fittest fraction is kept as is and the rest of the
+ * next generation are mutated copies of them. Prints fitness statistics and
+ * world-steps per second for every generation, then totals.
+ *
+ * Usage:
+ *   Trainer [--population 2000] [--generations 30] [--courses 4] [--max-seconds 60]
+ *           [--hidden 6] [--elite 0.1] [--sigma 0.2] [--threads cores] [--seed 1]
+ */
+public final class Trainer {
+    private int population = 2000;
+    private int generations = 30;
+    private int courses = 4;
+    private long maxSteps = 60_000L / CourseGeometry.STEP_MILLIS;
+    private int hidden = 6;
+    private double eliteFraction = 0.1;
+    private float sigma = 0.2f;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long seed = 1L;
+
+    private Trainer() {
+    }
+
+    public static void main(String[] args) {
+        Trainer trainer = new Trainer();
+        trainer.parseArgs(args);
+        trainer.run();
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--population" -> population = Integer.parseInt(args[++i]);
+                case "--generations" -> generations = Integer.parseInt(args[++i]);
+                case "--courses" -> courses = Integer.parseInt(args[++i]);
+                case "--max-seconds" -> maxSteps = Long.parseLong(args[++i]) * 1000L / CourseGeometry.STEP_MILLIS;
+                case "--hidden" -> hidden = Integer.parseInt(args[++i]);
+                case "--elite" -> eliteFraction = Double.parseDouble(args[++i]);
+                case "--sigma" -> sigma = Float.parseFloat(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    private void run() {
+        // Evolution itself runs on this thread from one seeded Random, so a run is reproducible.
+        Random random = new Random(seed);
+        NeuralPilot[] pilots = new NeuralPilot[population];
+        for (int i = 0; i < population; i++) {
+            pilots[i] = NeuralPilot.random(hidden, random);
+        }
+        int elites = Math.max(1, (int) (population * eliteFraction));
+
+        System.out.printf(Locale.ROOT, "population=%d courses=%d worlds/gen=%,d max=%,d steps threads=%d%n",
+            population, courses, (long) population * courses, maxSteps, threads);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        WorldRunner runner = new WorldRunner(pool, maxSteps);
+        long totalSteps = 0L;
+        long totalWorlds = 0L;
+        long start = System.nanoTime();
+        try {
+            for (int generation = 0; generation < generations; generation++) {
+                long[] courseSeeds = new long[courses];
+                for (int i = 0; i < courses; i++) {
+                    courseSeeds[i] = random.nextLong();
+                }
+
+                long generationStart = System.nanoTime();
+                WorldRunner.Results results = runner.run(pilots, courseSeeds);
+                double seconds = (System.nanoTime() - generationStart) / 1e9;
+                totalSteps += results.worldSteps();
+                totalWorlds += results.ticks().length;
+
+                Integer[] ranking = rank(results);
+                report(generation, results, ranking, seconds);
+
+                NeuralPilot[] next = new NeuralPilot[population];
+                for (int i = 0; i < elites; i++) {
+                    next[i] = pilots[ranking[i]];
+                }
+                for (int i = elites; i < population; i++) {
+                    next[i] = pilots[ranking[random.nextInt(elites)]].mutate(sigma, random);
+                }
+                pilots = next;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "total: %,d worlds, %,d world-steps in %.1fs = %,.0f world-steps/s%n",
+            totalWorlds, totalSteps, elapsedSeconds, totalSteps / elapsedSeconds);
+    }
+
+    /**
+     * Pilot indices ordered by fitness, best first.
+     */
+    private Integer[] rank(WorldRunner.Results results) {
+        double[] fitness = fitness(results);
+        Integer[] ranking = new Integer[population];
+        for (int i = 0; i < population; i++) {
+            ranking[i] = i;
+        }
+        Arrays.sort(ranking, (a, b) -> Double.compare(fitness[b], fitness[a]));
+        return ranking;
+    }
+
+    private double[] fitness(WorldRunner.Results results) {
+        double[] fitness = new double[population];
+        for (int world = 0; world < results.ticks().length; world++) {
+            fitness[world % population] += results.ticks()[world] / (double) courses;
+        }
+        return fitness;
+    }
+
+    private void report(int generation, WorldRunner.Results results, Integer[] ranking, double seconds) {
+        double[] fitness = fitness(results);
+        double mean = 0d;
+        for (double value : fitness) {
+            mean += value / population;
+        }
+        int maxScore = 0;
+        int finished = 0;
+        for (int world = 0; world < results.scores().length; world++) {
+            maxScore = Math.max(maxScore, results.scores()[world]);
+            if (results.ticks()[world] >= maxSteps) {
+                finished++;
+            }
+        }
+        System.out.printf(Locale.ROOT,
+            "gen %3d  fitness best=%8.0f p90=%8.0f median=%8.0f mean=%8.0f  max score=%4d  capped=%5.1f%%"
+                + "  %,12.0f world-steps/s%n",
+            generation,
+            fitness[ranking[0]],
+            fitness[ranking[population / 10]],
+            fitness[ranking[population / 2]],
+            mean,
+            maxScore,
+            100d * finished / results.scores().length,
+            results.worldSteps() / seconds);
+    }
+}
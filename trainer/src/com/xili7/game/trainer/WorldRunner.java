@@ -0,0 +1,123 @@
+package com.xili7.game.trainer;
+
+import com.xili7.game.sim.BirdSwarm;
+import com.xili7.game.sim.Course;
+import com.xili7.game.sim.CourseGeometry;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Flies every pilot of a population over every course of a generation, each
+ * pair an independent world, spread across a {@link ForkJoinPool}.
+ *
+ * World {@code w} is course {@code w / pilots} flown by pilot
+ * {@code w % pilots}, so neighbouring worlds share a course. The world range
+ * is split in halves until a leaf holds at most {@link #LEAF_WORLDS} worlds;
+ * idle workers steal the other halves, which keeps cores busy even though
+ * run lengths differ by orders of magnitude. A leaf flies its worlds of one
+ * course as a single {@link BirdSwarm}, so the pipe ahead is looked up once
+ * per step rather than once per bird. Each leaf writes only its own slots
+ * of the result arrays.
+ */
+final class WorldRunner {
+    private static final int LEAF_WORLDS = 256;
+
+    /**
+     * Outcome of one {@link #run}: per-world ticks survived and scores, plus
+     * the total number of world-steps taken.
+     */
+    record Results(long[] ticks, int[] scores, long worldSteps) {
+    }
+
+    private final ForkJoinPool pool;
+    private final long maxSteps;
+
+    WorldRunner(ForkJoinPool pool, long maxSteps) {
+        this.pool = pool;
+        this.maxSteps = maxSteps;
+    }
+
+    Results run(NeuralPilot[] pilots, long[] courseSeeds) {
+        Course[] courses = new Course[courseSeeds.length];
+        for (int i = 0; i < courses.length; i++) {
+            courses[i] = new Course(courseSeeds[i]);
+        }
+        int worlds = pilots.length * courses.length;
+        long[] ticks = new long[worlds];
+        int[] scores = new int[worlds];
+        long steps = pool.invoke(new Slice(pilots, courses, ticks, scores, 0, worlds));
+        return new Results(ticks, scores, steps);
+    }
+
+    // Fork/join tasks are never serialized.
+    @SuppressWarnings("serial")
+    private final class Slice extends RecursiveTask<Long> {
+        private final NeuralPilot[] pilots;
+        private final Course[] courses;
+        private final long[] ticks;
+        private final int[] scores;
+        private final int from;
+        private final int to;
+
+        private Slice(NeuralPilot[] pilots, Course[] courses, long[] ticks, int[] scores, int from, int to) {
+            this.pilots = pilots;
+            this.courses = courses;
+            this.ticks = ticks;
+            this.scores = scores;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= LEAF_WORLDS) {
+                long steps = 0L;
+                // A leaf may straddle a course boundary; fly each course's part as its own swarm.
+                for (int start = from; start < to; ) {
+                    int course = start / pilots.length;
+                    int end = Math.min(to, (course + 1) * pilots.length);
+                    steps += fly(courses[course], start, end, course * pilots.length);
+                    start = end;
+                }
+                return steps;
+            }
+            int middle = (from + to) >>> 1;
+            Slice right = new Slice(pilots, courses, ticks, scores, middle, to);
+            right.fork();
+            long left = new Slice(pilots, courses, ticks, scores, from, middle).compute();
+            return left + right.join();
+        }
+
+        private long fly(Course course, int start, int end, int courseBase) {
+            BirdSwarm swarm = new BirdSwarm(course, end - start);
+            for (int world = start; world < end; world++) {
+                swarm.add();
+            }
+            long steps = 0L;
+            int firstPilot = start - courseBase;
+            while (swarm.activeCount() > 0 && swarm.tick() < maxSteps) {
+                long tick = swarm.tick();
+                long pipe = CourseGeometry.pipeAhead(tick);
+                float gapY = course.gapY(pipe);
+                float distance = (float) (CourseGeometry.pipeX(pipe, tick) - CourseGeometry.BIRD_X);
+                float nextGapY = course.gapY(pipe + 1);
+                int active = swarm.activeCount();
+                for (int slot = 0; slot < active; slot++) {
+                    NeuralPilot pilot = pilots[firstPilot + swarm.idAt(slot)];
+                    if (pilot.flap(swarm.yAt(slot), swarm.velocityAt(slot), gapY, distance, nextGapY)) {
+                        swarm.flap(slot);
+                    }
+                }
+                steps += active;
+                swarm.step();
+            }
+            for (int world = start; world < end; world++) {
+                int id = world - start;
+                ticks[world] = swarm.ticksOf(id);
+                scores[world] = swarm.scoreOf(id);
+            }
+            return steps;
+        }
+    }
+}